@@ -0,0 +1,53 @@
+/*
+ * AgentFlusher.java
+ *
+ * Copyright (C) 2011-2012, Artur Jonkisz, <travis.source@gmail.com>
+ *
+ * This file is part of TraVis.
+ * See https://github.com/ajonkisz/TraVis for more info.
+ *
+ * TraVis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TraVis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with TraVis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package travis.agent;
+
+final class AgentFlusher extends Thread {
+
+    private static final long FLUSH_INTERVAL = 20;
+
+    private final TraceChannel channel;
+
+    AgentFlusher(TraceChannel channel) {
+        super("TraVis Agent Flusher");
+        this.channel = channel;
+        setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+        while (!isInterrupted()) {
+            try {
+                Thread.sleep(FLUSH_INTERVAL);
+            } catch (InterruptedException e) {
+                break;
+            }
+            TraceRecorder.drainAll(channel);
+            if (channel.isBroken()) {
+                // TraVis went away, restore the original classes.
+                TravisAgent.stop();
+                break;
+            }
+        }
+    }
+
+}
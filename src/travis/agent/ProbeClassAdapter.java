@@ -0,0 +1,52 @@
+/*
+ * ProbeClassAdapter.java
+ *
+ * Copyright (C) 2011-2012, Artur Jonkisz, <travis.source@gmail.com>
+ *
+ * This file is part of TraVis.
+ * See https://github.com/ajonkisz/TraVis for more info.
+ *
+ * TraVis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TraVis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with TraVis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package travis.agent;
+
+import java.util.Map;
+
+import org.objectweb.asm.ClassAdapter;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+final class ProbeClassAdapter extends ClassAdapter {
+
+    private final Map<String, Integer> methods;
+
+    ProbeClassAdapter(ClassVisitor cv, Map<String, Integer> methods) {
+        super(cv);
+        this.methods = methods;
+    }
+
+    @Override
+    public MethodVisitor visitMethod(int access, String name, String desc,
+                                     String signature, String[] exceptions) {
+        MethodVisitor mv = super.visitMethod(access, name, desc, signature,
+                exceptions);
+        Integer methodId = methods.get(name + desc);
+        if (mv == null || methodId == null
+                || (access & (Opcodes.ACC_ABSTRACT | Opcodes.ACC_NATIVE)) != 0)
+            return mv;
+        return new ProbeMethodAdapter(mv, access, name, desc, methodId);
+    }
+
+}
@@ -0,0 +1,90 @@
+/*
+ * ProbeClassWriter.java
+ *
+ * Copyright (C) 2011-2012, Artur Jonkisz, <travis.source@gmail.com>
+ *
+ * This file is part of TraVis.
+ * See https://github.com/ajonkisz/TraVis for more info.
+ *
+ * TraVis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TraVis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with TraVis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package travis.agent;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * ClassWriter computing frames without loading any classes. Loading classes
+ * from within a transformer can cause circularity errors, so super classes
+ * are read from the class files instead.
+ */
+final class ProbeClassWriter extends ClassWriter {
+
+    private static final String OBJECT = "java/lang/Object";
+
+    private final ClassLoader loader;
+
+    ProbeClassWriter(ClassReader reader, ClassLoader loader) {
+        super(reader, COMPUTE_FRAMES);
+        this.loader = loader;
+    }
+
+    @Override
+    protected String getCommonSuperClass(String type1, String type2) {
+        Set<String> supers = new HashSet<String>();
+        for (String type = type1; type != null; type = getSuperClass(type)) {
+            supers.add(type);
+        }
+        for (String type = type2; type != null; type = getSuperClass(type)) {
+            if (supers.contains(type))
+                return type;
+        }
+        return OBJECT;
+    }
+
+    /**
+     * @return super class of the type, null for java.lang.Object, interfaces
+     *         and types that cannot be read.
+     */
+    private String getSuperClass(String type) {
+        if (OBJECT.equals(type))
+            return null;
+        InputStream in = loader == null ? ClassLoader
+                .getSystemResourceAsStream(type + ".class") : loader
+                .getResourceAsStream(type + ".class");
+        if (in == null)
+            return null;
+        try {
+            ClassReader reader = new ClassReader(in);
+            if ((reader.getAccess() & Opcodes.ACC_INTERFACE) != 0)
+                return null;
+            return reader.getSuperName();
+        } catch (IOException e) {
+            return null;
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+
+}
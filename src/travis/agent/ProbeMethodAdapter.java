@@ -0,0 +1,83 @@
+/*
+ * ProbeMethodAdapter.java
+ *
+ * Copyright (C) 2011-2012, Artur Jonkisz, <travis.source@gmail.com>
+ *
+ * This file is part of TraVis.
+ * See https://github.com/ajonkisz/TraVis for more info.
+ *
+ * TraVis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TraVis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with TraVis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package travis.agent;
+
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.AdviceAdapter;
+import org.objectweb.asm.commons.Method;
+
+/**
+ * Calls TraceRecorder.enter on method entry (after the super constructor call
+ * in constructors) and TraceRecorder.exit on every return. Exceptions thrown
+ * out of the method are caught by an extra catch-all handler which records
+ * the exit and rethrows.
+ */
+final class ProbeMethodAdapter extends AdviceAdapter {
+
+    private static final Type RECORDER = Type.getType(TraceRecorder.class);
+    private static final Method ENTER = Method.getMethod("void enter(int)");
+    private static final Method EXIT = Method.getMethod("void exit(int)");
+
+    private final int methodId;
+    private final Label start;
+    private boolean entered;
+
+    ProbeMethodAdapter(MethodVisitor mv, int access, String name,
+                       String desc, int methodId) {
+        super(mv, access, name, desc);
+        this.methodId = methodId;
+        start = new Label();
+    }
+
+    @Override
+    protected void onMethodEnter() {
+        push(methodId);
+        invokeStatic(RECORDER, ENTER);
+        mark(start);
+        entered = true;
+    }
+
+    @Override
+    protected void onMethodExit(int opcode) {
+        // Throws are handled by the catch-all handler.
+        if (opcode != ATHROW) {
+            push(methodId);
+            invokeStatic(RECORDER, EXIT);
+        }
+    }
+
+    @Override
+    public void visitMaxs(int maxStack, int maxLocals) {
+        if (entered) {
+            Label handler = new Label();
+            mark(handler);
+            mv.visitTryCatchBlock(start, handler, handler, null);
+            push(methodId);
+            invokeStatic(RECORDER, EXIT);
+            mv.visitInsn(ATHROW);
+        }
+        super.visitMaxs(maxStack, maxLocals);
+    }
+
+}
@@ -0,0 +1,77 @@
+/*
+ * ProbeTransformer.java
+ *
+ * Copyright (C) 2011-2012, Artur Jonkisz, <travis.source@gmail.com>
+ *
+ * This file is part of TraVis.
+ * See https://github.com/ajonkisz/TraVis for more info.
+ *
+ * TraVis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TraVis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with TraVis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package travis.agent;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.security.ProtectionDomain;
+import java.util.Map;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+
+final class ProbeTransformer implements ClassFileTransformer {
+
+    private static final String[] EXCLUDED_PACKAGES = {"travis/agent/",
+            "org/objectweb/asm/"};
+
+    private final Probes probes;
+
+    ProbeTransformer(Probes probes) {
+        this.probes = probes;
+    }
+
+    Probes getProbes() {
+        return probes;
+    }
+
+    @Override
+    public byte[] transform(ClassLoader loader, String className,
+                            Class<?> classBeingRedefined, ProtectionDomain protectionDomain,
+                            byte[] classfileBuffer) {
+        if (className == null || isExcluded(className))
+            return null;
+        Map<String, Integer> methods = probes.getMethods(className);
+        if (methods == null)
+            return null;
+
+        try {
+            ClassReader reader = new ClassReader(classfileBuffer);
+            ClassWriter writer = new ProbeClassWriter(reader, loader);
+            reader.accept(new ProbeClassAdapter(writer, methods),
+                    ClassReader.SKIP_FRAMES);
+            return writer.toByteArray();
+        } catch (Throwable t) {
+            // Never break the traced program, leave the class untouched.
+            t.printStackTrace();
+            return null;
+        }
+    }
+
+    private static boolean isExcluded(String className) {
+        for (String excluded : EXCLUDED_PACKAGES) {
+            if (className.startsWith(excluded))
+                return true;
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,94 @@
+/*
+ * Probes.java
+ *
+ * Copyright (C) 2011-2012, Artur Jonkisz, <travis.source@gmail.com>
+ *
+ * This file is part of TraVis.
+ * See https://github.com/ajonkisz/TraVis for more info.
+ *
+ * TraVis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TraVis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with TraVis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package travis.agent;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Methods selected in TraVis. The probes file is generated by
+ * ScriptGenerator and holds one method per line:
+ * <pre>
+ * methodId internalClassName methodName descriptor
+ * </pre>
+ */
+final class Probes {
+
+    private final Map<String, Map<String, Integer>> classes;
+
+    private Probes() {
+        classes = new HashMap<String, Map<String, Integer>>();
+    }
+
+    static Probes read(File file) throws IOException {
+        Probes probes = new Probes();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.trim().split(" ");
+                if (parts.length != 4)
+                    continue;
+                probes.add(Integer.parseInt(parts[0]), parts[1], parts[2],
+                        parts[3]);
+            }
+        } finally {
+            reader.close();
+        }
+        return probes;
+    }
+
+    private void add(int methodId, String className, String name, String desc) {
+        Map<String, Integer> methods = classes.get(className);
+        if (methods == null) {
+            methods = new HashMap<String, Integer>();
+            classes.put(className, methods);
+        }
+        methods.put(name + desc, methodId);
+    }
+
+    /**
+     * @return map of method name concatenated with its descriptor to method
+     *         id or null if no method of the class is probed.
+     */
+    Map<String, Integer> getMethods(String internalClassName) {
+        return classes.get(internalClassName);
+    }
+
+    List<Class<?>> getLoadedClasses(Class<?>[] loaded) {
+        List<Class<?>> result = new ArrayList<Class<?>>();
+        for (Class<?> c : loaded) {
+            if (classes.containsKey(c.getName().replace('.', '/')))
+                result.add(c);
+        }
+        return result;
+    }
+
+}
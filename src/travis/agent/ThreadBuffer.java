@@ -0,0 +1,83 @@
+/*
+ * ThreadBuffer.java
+ *
+ * Copyright (C) 2011-2012, Artur Jonkisz, <travis.source@gmail.com>
+ *
+ * This file is part of TraVis.
+ * See https://github.com/ajonkisz/TraVis for more info.
+ *
+ * TraVis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TraVis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with TraVis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package travis.agent;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Events of a single thread kept in primitive arrays. Only the owner thread
+ * adds events, the lock is therefore uncontended apart from the moments the
+ * AgentFlusher drains the buffer.
+ */
+final class ThreadBuffer {
+
+    private static final int CAPACITY = 1024;
+    private static final AtomicInteger NEXT_SHORT_ID = new AtomicInteger();
+
+    private final WeakReference<Thread> thread;
+    private final long threadId;
+    private final int shortId;
+    private final int[] events;
+    private final long[] times;
+    private int size;
+
+    ThreadBuffer(Thread thread) {
+        this.thread = new WeakReference<Thread>(thread);
+        threadId = thread.getId();
+        shortId = NEXT_SHORT_ID.getAndIncrement();
+        events = new int[CAPACITY];
+        times = new long[CAPACITY];
+    }
+
+    /**
+     * Return calls are stored as a bitwise complement of the method id so
+     * that method 0 can be told apart too.
+     */
+    static int toReturnCall(int methodId) {
+        return ~methodId;
+    }
+
+    synchronized void add(int event, long time, TraceChannel channel) {
+        events[size] = event;
+        times[size] = time;
+        if (++size == CAPACITY)
+            drain(channel);
+    }
+
+    synchronized void drain(TraceChannel channel) {
+        if (size == 0)
+            return;
+        channel.write(threadId, shortId, events, times, size);
+        size = 0;
+    }
+
+    synchronized void clear() {
+        size = 0;
+    }
+
+    boolean isThreadAlive() {
+        Thread t = thread.get();
+        return t != null && t.isAlive();
+    }
+
+}
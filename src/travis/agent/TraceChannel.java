@@ -0,0 +1,194 @@
+/*
+ * TraceChannel.java
+ *
+ * Copyright (C) 2011-2012, Artur Jonkisz, <travis.source@gmail.com>
+ *
+ * This file is part of TraVis.
+ * See https://github.com/ajonkisz/TraVis for more info.
+ *
+ * TraVis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TraVis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with TraVis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package travis.agent;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+
+/**
+ * Stream of WireFormat frames sent to TraVis. On the standard output, which
+ * is shared with the traced program, frames are kept whole by writing at
+ * most a pipe buffer at once, TraVis prints everything between them as the
+ * program output.
+ */
+final class TraceChannel {
+
+    // Writes to a pipe up to this size are not interleaved with other writes.
+    private static final int MAX_WRITE = WireFormat.MAX_FRAME;
+
+    private final OutputStream out;
+    private final Socket socket;
+    private final byte[] buffer;
+    private int position;
+    private boolean[] announcedThreads;
+    private volatile boolean broken;
+
+    private TraceChannel(OutputStream out, Socket socket) {
+        this.out = out;
+        this.socket = socket;
+        buffer = new byte[MAX_WRITE];
+        announcedThreads = new boolean[64];
+    }
+
+    static TraceChannel openStdout() {
+        return new TraceChannel(new FileOutputStream(FileDescriptor.out),
+                null);
+    }
+
+    static TraceChannel openSocket(int port) throws IOException {
+        Socket socket = new Socket(InetAddress.getByName(null), port);
+        socket.setTcpNoDelay(true);
+        return new TraceChannel(socket.getOutputStream(), socket);
+    }
+
+    synchronized void write(long threadId, int shortId, int[] events,
+                            long[] times, int count) {
+        if (broken)
+            return;
+        writeFrames(threadId, shortId, events, times, count);
+    }
+
+    private void writeFrames(long threadId, int shortId, int[] events,
+                             long[] times, int count) {
+        if (!isAnnounced(shortId)) {
+            ensureSpace(WireFormat.FRAME_HEADER + WireFormat.MAX_VARINT
+                    + WireFormat.MAX_VARLONG);
+            int payload = startFrame(WireFormat.FRAME_THREAD);
+            writeVarlong(shortId);
+            writeVarlong(threadId);
+            endFrame(payload);
+        }
+
+        int i = 0;
+        while (i < count) {
+            ensureSpace(WireFormat.FRAME_HEADER + WireFormat.MAX_VARINT + 2
+                    + WireFormat.MAX_VARLONG + WireFormat.MAX_EVENT);
+            int payload = startFrame(WireFormat.FRAME_EVENTS);
+            writeVarlong(shortId);
+            int countPosition = position;
+            position += 2;
+            long previous = times[i];
+            writeVarlong(WireFormat.zigzag(previous));
+
+            int n = 0;
+            int limit = buffer.length - WireFormat.MAX_EVENT;
+            for (; i < count && position <= limit; i++, n++) {
+                int event = events[i];
+                long code = event < 0 ? ((long) ~event << 1) | 1
+                        : (long) event << 1;
+                writeVarlong(code);
+                writeVarlong(WireFormat.zigzag(times[i] - previous));
+                previous = times[i];
+            }
+            buffer[countPosition] = (byte) (n >>> 8);
+            buffer[countPosition + 1] = (byte) n;
+            endFrame(payload);
+        }
+    }
+
+    private boolean isAnnounced(int shortId) {
+        if (shortId >= announcedThreads.length) {
+            boolean[] announced = new boolean[Math.max(shortId + 1,
+                    announcedThreads.length * 2)];
+            System.arraycopy(announcedThreads, 0, announced, 0,
+                    announcedThreads.length);
+            announcedThreads = announced;
+        }
+        boolean announced = announcedThreads[shortId];
+        announcedThreads[shortId] = true;
+        return announced;
+    }
+
+    private int startFrame(int type) {
+        System.arraycopy(WireFormat.MARKER, 0, buffer, position,
+                WireFormat.MARKER.length);
+        position += WireFormat.MARKER.length;
+        buffer[position++] = (byte) type;
+        // Leave space for the payload length
+        position += 2;
+        return position;
+    }
+
+    private void endFrame(int payloadStart) {
+        int length = position - payloadStart;
+        buffer[payloadStart - 2] = (byte) (length >>> 8);
+        buffer[payloadStart - 1] = (byte) length;
+    }
+
+    private void writeVarlong(long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+    }
+
+    private void ensureSpace(int bytes) {
+        if (position + bytes > buffer.length)
+            flushBuffer();
+    }
+
+    synchronized void flush() {
+        flushBuffer();
+        if (broken)
+            return;
+        try {
+            out.flush();
+        } catch (IOException e) {
+            broken = true;
+        }
+    }
+
+    private void flushBuffer() {
+        if (position == 0 || broken) {
+            position = 0;
+            return;
+        }
+        try {
+            out.write(buffer, 0, position);
+        } catch (IOException e) {
+            broken = true;
+        }
+        position = 0;
+    }
+
+    boolean isBroken() {
+        return broken;
+    }
+
+    synchronized void close() {
+        flush();
+        broken = true;
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Ignore, TraVis has already gone
+            }
+        }
+    }
+
+}
@@ -0,0 +1,111 @@
+/*
+ * TraceRecorder.java
+ *
+ * Copyright (C) 2011-2012, Artur Jonkisz, <travis.source@gmail.com>
+ *
+ * This file is part of TraVis.
+ * See https://github.com/ajonkisz/TraVis for more info.
+ *
+ * TraVis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TraVis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with TraVis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package travis.agent;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Target of the calls injected by ProbeMethodAdapter. Every thread records
+ * into its own ThreadBuffer, the buffers are drained to the TraceChannel when
+ * full or periodically by the AgentFlusher.
+ */
+public final class TraceRecorder {
+
+    private static final ThreadLocal<ThreadBuffer> BUFFERS = new Buffers();
+    private static final List<ThreadBuffer> ALL_BUFFERS = new CopyOnWriteArrayList<ThreadBuffer>();
+
+    private static volatile TraceChannel channel;
+    private static AgentFlusher flusher;
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new ShutdownHook());
+    }
+
+    private TraceRecorder() {
+    }
+
+    public static void enter(int methodId) {
+        TraceChannel c = channel;
+        if (c != null) {
+            long now = System.nanoTime();
+            BUFFERS.get().add(methodId, now, c);
+        }
+    }
+
+    public static void exit(int methodId) {
+        TraceChannel c = channel;
+        if (c != null) {
+            long now = System.nanoTime();
+            BUFFERS.get().add(ThreadBuffer.toReturnCall(methodId), now, c);
+        }
+    }
+
+    static synchronized void start(TraceChannel newChannel) {
+        channel = newChannel;
+        flusher = new AgentFlusher(newChannel);
+        flusher.start();
+    }
+
+    static synchronized void stop() {
+        TraceChannel c = channel;
+        if (c == null)
+            return;
+
+        channel = null;
+        flusher.interrupt();
+        flusher = null;
+        // Buffers stay registered as threads keep them for the next session.
+        for (ThreadBuffer buffer : ALL_BUFFERS) {
+            buffer.clear();
+        }
+        c.close();
+    }
+
+    static void drainAll(TraceChannel c) {
+        for (ThreadBuffer buffer : ALL_BUFFERS) {
+            buffer.drain(c);
+            if (!buffer.isThreadAlive())
+                ALL_BUFFERS.remove(buffer);
+        }
+        c.flush();
+    }
+
+    private static final class Buffers extends ThreadLocal<ThreadBuffer> {
+        @Override
+        protected ThreadBuffer initialValue() {
+            ThreadBuffer buffer = new ThreadBuffer(Thread.currentThread());
+            ALL_BUFFERS.add(buffer);
+            return buffer;
+        }
+    }
+
+    private static final class ShutdownHook extends Thread {
+        @Override
+        public void run() {
+            TraceChannel c = channel;
+            if (c != null)
+                drainAll(c);
+        }
+    }
+
+}
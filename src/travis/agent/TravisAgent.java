@@ -0,0 +1,141 @@
+/*
+ * TravisAgent.java
+ *
+ * Copyright (C) 2011-2012, Artur Jonkisz, <travis.source@gmail.com>
+ *
+ * This file is part of TraVis.
+ * See https://github.com/ajonkisz/TraVis for more info.
+ *
+ * TraVis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TraVis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with TraVis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package travis.agent;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.instrument.Instrumentation;
+import java.lang.instrument.UnmodifiableClassException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Entry point of the TraVis agent. It is loaded either with -javaagent when
+ * TraVis starts a new process or through the attach API when TraVis connects
+ * to an already running one. The agent reads the probes generated by
+ * TraVis, instruments matching methods and streams their calls back.
+ * <p>
+ * Options are given as comma separated key=value pairs:
+ * <ul>
+ * <li>probes - path to the probes file (required)</li>
+ * <li>port - TraVis port to connect to</li>
+ * <li>stdout - when true events are written to the standard output</li>
+ * </ul>
+ */
+public final class TravisAgent {
+
+    private static Instrumentation instrumentation;
+    private static ProbeTransformer transformer;
+
+    private TravisAgent() {
+    }
+
+    public static void premain(String args, Instrumentation inst)
+            throws IOException {
+        start(args, inst, false);
+    }
+
+    public static void agentmain(String args, Instrumentation inst)
+            throws IOException {
+        start(args, inst, true);
+    }
+
+    private static synchronized void start(String args, Instrumentation inst,
+                                           boolean retransform) throws IOException {
+        // Attaching again to the same VM replaces the previous session.
+        stop();
+
+        Map<String, String> options = parseOptions(args);
+        String probesPath = options.get("probes");
+        if (probesPath == null)
+            throw new IllegalArgumentException("TraVis agent: missing probes");
+        Probes probes = Probes.read(new File(probesPath));
+
+        TraceChannel channel;
+        if (Boolean.parseBoolean(options.get("stdout"))) {
+            channel = TraceChannel.openStdout();
+        } else {
+            channel = TraceChannel.openSocket(Integer.parseInt(options
+                    .get("port")));
+        }
+
+        instrumentation = inst;
+        transformer = new ProbeTransformer(probes);
+        TraceRecorder.start(channel);
+        inst.addTransformer(transformer, true);
+
+        if (retransform && inst.isRetransformClassesSupported()) {
+            retransform(probes.getLoadedClasses(inst.getAllLoadedClasses()));
+        }
+    }
+
+    /**
+     * Stops recording and restores original byte code of every class
+     * instrumented during the current session. Called when TraVis detaches.
+     */
+    static synchronized void stop() {
+        TraceRecorder.stop();
+        if (transformer == null)
+            return;
+
+        instrumentation.removeTransformer(transformer);
+        Probes probes = transformer.getProbes();
+        transformer = null;
+        if (instrumentation.isRetransformClassesSupported()) {
+            retransform(probes.getLoadedClasses(instrumentation
+                    .getAllLoadedClasses()));
+        }
+    }
+
+    private static void retransform(List<Class<?>> classes) {
+        for (Class<?> c : classes) {
+            if (!instrumentation.isModifiableClass(c))
+                continue;
+            try {
+                instrumentation.retransformClasses(c);
+            } catch (UnmodifiableClassException e) {
+                e.printStackTrace();
+            } catch (InternalError e) {
+                // Thrown by some VMs for classes that cannot be changed
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private static Map<String, String> parseOptions(String args) {
+        Map<String, String> options = new HashMap<String, String>();
+        if (args == null)
+            return options;
+        for (String option : args.split(",")) {
+            int i = option.indexOf('=');
+            if (i == -1) {
+                options.put(option.trim(), "true");
+            } else {
+                options.put(option.substring(0, i).trim(),
+                        option.substring(i + 1).trim());
+            }
+        }
+        return options;
+    }
+
+}
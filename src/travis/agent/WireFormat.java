@@ -0,0 +1,71 @@
+/*
+ * WireFormat.java
+ *
+ * Copyright (C) 2011-2012, Artur Jonkisz, <travis.source@gmail.com>
+ *
+ * This file is part of TraVis.
+ * See https://github.com/ajonkisz/TraVis for more info.
+ *
+ * TraVis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TraVis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with TraVis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package travis.agent;
+
+/**
+ * Binary format of the events sent by the agent. Events are sent in frames:
+ * <pre>
+ * marker (3 bytes) | type (1 byte) | payload length (2 bytes) | payload
+ * </pre>
+ * A THREAD frame binds a short thread id used by the following frames to a
+ * Java thread id:
+ * <pre>
+ * varint shortId | varlong threadId
+ * </pre>
+ * An EVENTS frame holds events of a single thread:
+ * <pre>
+ * varint shortId | count (2 bytes) | zigzag varlong first event time |
+ * count * (varint methodId &lt;&lt; 1 | return flag, zigzag varlong time delta)
+ * </pre>
+ * The marker bytes never appear in UTF-8 text, so frames may be mixed with
+ * the output of the traced program.
+ */
+public final class WireFormat {
+
+    public static final byte[] MARKER = {(byte) 201, (byte) 199, (byte) 200};
+    public static final int FRAME_HEADER = MARKER.length + 3;
+    public static final int MAX_FRAME = 4096;
+
+    public static final int FRAME_THREAD = 1;
+    public static final int FRAME_EVENTS = 2;
+
+    public static final int MAX_VARINT = 5;
+    public static final int MAX_VARLONG = 10;
+    public static final int MAX_EVENT = MAX_VARINT + MAX_VARLONG;
+
+    private WireFormat() {
+    }
+
+    public static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    public static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public static boolean isMarker(byte[] buf, int off) {
+        return buf[off] == MARKER[0] && buf[off + 1] == MARKER[1]
+                && buf[off + 2] == MARKER[2];
+    }
+
+}
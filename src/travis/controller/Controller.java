@@ -29,12 +29,15 @@ import javax.swing.Timer;
 
 import travis.controller.UIHelper.Mode;
 import travis.model.script.ScriptHandler;
-import travis.model.script.TraceInfo;
+import travis.model.script.TraceBuffer;
+import travis.model.script.TraceBus;
+import travis.model.script.TraceListener;
 import travis.view.project.graph.connection.ConnectionPainter;
 import travis.view.settings.Settings;
 import travis.view.settings.Settings.Type;
 
-public class Controller implements Observer, ActionListener {
+public class Controller implements Observer, TraceListener,
+        ActionListener {
 
     private static final int FRAME_TIME = 1000 / 25;
 
@@ -47,6 +50,7 @@ public class Controller implements Observer, ActionListener {
         UIHelper.getInstance().populateFrame();
         Settings.getInstance().addObserver(this);
         ScriptHandler.getInstance().addObserver(this);
+        TraceBus.getInstance().addTraceListener(this);
 
         Timer timer = new Timer(250, this);
         timer.setRepeats(true);
@@ -63,25 +67,37 @@ public class Controller implements Observer, ActionListener {
                     UIHelper.getInstance().updatePlaybackSpeed();
                 } else if (type == Type.PLAYBACK_MODE) {
                     UIHelper.getInstance().updatePlaybackMode();
+                } else if (type == Type.PRELOAD) {
+                    UIHelper.getInstance().updatePreloadBudget();
                 }
             }
             if (type == Type.GRAPH) {
                 UIGraphicsHelper.getInstance().repaintTreeGraph();
             } else if (type == Type.GRAPH_CONNECTION) {
                 UIGraphicsHelper.getInstance().repaintGraph();
+            } else if (type == Type.CHECKPOINTS) {
+                ScriptHandler.getInstance().setCheckpointInterval(
+                        Settings.getInstance().getCheckpointInterval());
             }
         } else if (o instanceof ScriptHandler) {
-            if (arg == null) {
-                UIGraphicsHelper.getInstance().repaintGraph();
-            } else {
-                ConnectionPainter painter = UIHelper.getInstance().getGraph()
-                        .getConnectionPainter();
-                painter.lineTo((TraceInfo) arg);
-                checkForRepaint();
-            }
+            UIGraphicsHelper.getInstance().repaintGraph();
         }
     }
 
+    @Override
+    public void tracesReceived(TraceBuffer traces) {
+        ConnectionPainter painter = UIHelper.getInstance().getGraph()
+                .getConnectionPainter();
+        painter.lineTo(traces);
+        checkForRepaint();
+    }
+
+    @Override
+    public void tracesReset(TraceBuffer openCalls) {
+        UIGraphicsHelper.getInstance().resetConnections(openCalls);
+        checkForRepaint();
+    }
+
     private void checkForRepaint() {
         long now = System.currentTimeMillis();
         if (now - lastRepaint > FRAME_TIME) {
@@ -24,6 +24,7 @@ package travis.controller;
 import javax.swing.SwingUtilities;
 
 import travis.controller.UIHelper.Mode;
+import travis.model.script.TraceBuffer;
 
 public class UIGraphicsHelper {
 
@@ -50,6 +51,14 @@ public class UIGraphicsHelper {
         UIHelper.getInstance().getGraph().getConnectionPainter().reset();
     }
 
+    /**
+     * @param openCalls calls opened before the traces that follow
+     */
+    public void resetConnections(TraceBuffer openCalls) {
+        UIHelper.getInstance().getGraph().getConnectionPainter()
+                .reset(openCalls);
+    }
+
     public void repaintTreeGraph() {
         Runnable repainter = new Runnable() {
             @Override
@@ -64,9 +73,7 @@ public class UIGraphicsHelper {
         Runnable repainter = new Runnable() {
             @Override
             public void run() {
-                UIHelper.getInstance().getGraph().getConnectionPainter()
-                        .setNeedRepaint(true);
-                UIHelper.getInstance().getGraph().repaint();
+                UIHelper.getInstance().getGraph().renderFrame();
                 if (UIHelper.getInstance().getMode() == Mode.PLAYBACK) {
                     UIHelper.getInstance().getPlaybackPanel().repaint();
                 }
@@ -44,22 +44,26 @@ import travis.model.attach.Attacher;
 import travis.model.attach.Playback;
 import travis.model.script.FileParser;
 import travis.model.script.ScriptHandler;
+import travis.model.script.TraceFile;
 import travis.util.Messages;
 import travis.view.AttacherPanel;
 import travis.view.MainFrame;
 import travis.view.console.ConsolePanel;
 import travis.view.playback.PlaybackPanel;
 import travis.view.playback.PlaybackProgress;
+import travis.view.project.graph.FrameExporter;
 import travis.view.project.graph.GraphLayeredPane;
 import travis.view.project.graph.GraphPanel;
 import travis.view.project.graph.GraphTooltip;
 import travis.view.project.tree.ProjectTree;
 import travis.view.project.tree.TreePanel;
+import travis.view.settings.Settings;
 import travis.view.settings.SettingsPane;
 
 public class UIHelper {
 
     private static final UIHelper INSTANCE = new UIHelper();
+    private static final String DEFAULT_FPS = "25";
 
     public enum MessageType {
         INFORMATION, WARNING, ERROR
@@ -208,6 +212,10 @@ public class UIHelper {
         playbackPanel.updatePlaybackSpeed();
     }
 
+    public void updatePreloadBudget() {
+        playbackPanel.updatePreloadBudget();
+    }
+
     public TreePanel getTreePanel() {
         return treePanel;
     }
@@ -336,7 +344,8 @@ public class UIHelper {
             @Override
             public void run() {
                 try {
-                    final FileParser fp = new FileParser(fc.getSelectedFile());
+                    final FileParser fp = new FileParser(fc.getSelectedFile(),
+                            Settings.getInstance().getCheckpointInterval());
                     UIGraphicsHelper.getInstance().resetConnections();
                     getProjectTree().setRoot(fp);
                     playbackPanel.setFileParser(fp);
@@ -456,10 +465,9 @@ public class UIHelper {
             return;
         }
 
-        final long from = (long) (playback.getTracesStart() + (double) playback
-                .getTracesLength() * start);
-        final long to = (long) (playback.getTracesStart() + (double) playback
-                .getTracesLength() * end);
+        final TraceFile traceFile = playback.getTraceFile();
+        final long from = (long) (playback.getTracesLength() * start);
+        final long to = (long) (playback.getTracesLength() * end);
 
         final JDialog dialog = getAndShowProgressBarWindow(Messages
                 .get("saving.subtrace"));
@@ -467,11 +475,9 @@ public class UIHelper {
         dispatcher.submit(new Runnable() {
             @Override
             public void run() {
-                getProjectTree().generateScript();
                 try {
-                    ScriptHandler.getInstance().saveToFile(f,
-                            getProjectTree().getCheckedPaths());
-                    ScriptHandler.copyLines(scriptFile, f, from, to);
+                    ScriptHandler.saveSubtrace(f, getProjectTree()
+                            .getCheckedPaths(), traceFile, from, to);
                 } catch (IOException e) {
                     displayException(e);
                 }
@@ -481,6 +487,86 @@ public class UIHelper {
 
     }
 
+    /**
+     * Renders frames of the selected playback range to PNG images in a
+     * chosen directory.
+     */
+    public void exportFrames() {
+        if (mode != Mode.PLAYBACK)
+            return;
+
+        playbackPanel.pause();
+
+        // Ensure playback attacher
+        Playback playback = playbackPanel.getPlayback();
+        if (playback == null) {
+            displayMessage(Messages.get("no.playback"), MessageType.ERROR);
+            return;
+        }
+
+        String input = JOptionPane.showInputDialog(frame,
+                Messages.get("frames.per.second"), DEFAULT_FPS);
+        if (input == null)
+            return;
+        double framesPerSecond;
+        try {
+            framesPerSecond = Double.parseDouble(input);
+        } catch (NumberFormatException e) {
+            framesPerSecond = 0;
+        }
+        if (!(framesPerSecond > 0)) {
+            displayMessage(Messages.get("frames.per.second.invalid"),
+                    MessageType.ERROR);
+            return;
+        }
+        final double fps = framesPerSecond;
+
+        setupFilechooserForDirs();
+        if (fc.showSaveDialog(frame) != JFileChooser.APPROVE_OPTION)
+            return;
+
+        currentDirectory = fc.getCurrentDirectory();
+        final File dir = fc.getSelectedFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            displayMessage(Messages.get("directory.not.writable"),
+                    MessageType.ERROR);
+            return;
+        }
+
+        PlaybackProgress progress = playbackPanel.getPlaybackProgress();
+        final long from = (long) (playback.getTracesLength() * progress
+                .getPlaybackStart());
+        final long to = (long) (playback.getTracesLength() * progress
+                .getPlaybackEnd());
+        if (graph.getTreeRepRepresentation().getImage() == null) {
+            displayMessage(Messages.get("graph.not.drawn"), MessageType.ERROR);
+            return;
+        }
+        final FrameExporter exporter = new FrameExporter(
+                graph.getTreeRepRepresentation(), playback.getTraceFile(),
+                playback.getCheckpoints(), playback.getThreads());
+        final double speed = Settings.getInstance().getPlaybackSpeed();
+        final int tracesNo = Settings.getInstance().getCachedTracesNo();
+
+        final JDialog dialog = getAndShowProgressBarWindow(Messages
+                .get("exporting.frames"));
+
+        dispatcher.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    exporter.export(from, to, fps, speed, tracesNo, dir);
+                } catch (IOException e) {
+                    displayException(e);
+                } catch (RuntimeException e) {
+                    displayException(e);
+                } finally {
+                    dialog.setVisible(false);
+                }
+            }
+        });
+    }
+
     private void setupFilechooserForFiles() {
         fc.setCurrentDirectory(getCurrentDirectory());
         fc.resetChoosableFileFilters();
@@ -31,10 +31,9 @@ public interface Attacher {
     static final String DEPENDENCIES_DIR = CURRENT_DIR.endsWith("bin") ? CURRENT_DIR
             + "/../dependencies"
             : CURRENT_DIR + "/dependencies";
-    static final String AGENT_JAR = DEPENDENCIES_DIR + "/btrace-agent.jar";
-    static final String CLIENT_JAR = DEPENDENCIES_DIR + "/btrace-client.jar";
-    static final String SCRIPT_PATH = CURRENT_DIR + '/'
-            + ScriptGenerator.FILE_NAME + ".class";
+    static final String ASM_JAR = DEPENDENCIES_DIR + "/asm-all-3.3.jar";
+    static final String PROBES_PATH = CURRENT_DIR + '/'
+            + ScriptGenerator.FILE_NAME + ScriptGenerator.PROBES_EXTENSION;
 
     public void detach();
 
@@ -22,7 +22,7 @@
 package travis.model.attach;
 
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.IOException;
 
 import travis.model.script.FileParser;
 
@@ -37,8 +37,7 @@ public class AttacherFactory {
         return new NewProcess(javaOptions, main, args, classPath);
     }
 
-    public static Playback newAttacher(FileParser fp)
-            throws FileNotFoundException {
+    public static Playback newAttacher(FileParser fp) throws IOException {
         return new Playback(fp);
     }
 
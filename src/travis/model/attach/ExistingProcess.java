@@ -21,24 +21,23 @@
 
 package travis.model.attach;
 
+import java.io.IOException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
-import com.sun.btrace.comm.Command;
-import travis.model.attach.client.ClientRunner;
+import travis.model.attach.client.AgentClient;
 
 public class ExistingProcess implements Attacher {
 
     private static final String DESCRIPTOR = "Existing";
 
     private final ExecutorService executor;
-    private final ClientRunner runner;
     private final JavaProcess process;
+    private volatile AgentClient client;
     private volatile boolean running;
 
     public ExistingProcess(JavaProcess process) {
         this.process = process;
-        runner = new ClientRunner(SCRIPT_PATH, process.getPid());
         running = false;
         executor = Executors.newSingleThreadExecutor();
     }
@@ -46,19 +45,24 @@ public class ExistingProcess implements Attacher {
     @Override
     public void detach() {
         if (!executor.isShutdown()) {
-            try {
-                runner.getClient().sendExit(Command.EXIT);
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
+            // Agent restores original classes once the connection is closed
+            if (client != null)
+                client.close();
             executor.shutdown();
             running = false;
         }
     }
 
     @Override
-    public void start() {
-        executor.submit(runner);
+    public void start() throws IOException {
+        client = new AgentClient();
+        executor.submit(client);
+        try {
+            client.attach(process.getPid());
+        } catch (IOException e) {
+            client.close();
+            throw e;
+        }
         running = true;
     }
 
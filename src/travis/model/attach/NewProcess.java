@@ -23,14 +23,17 @@ package travis.model.attach;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.NoSuchElementException;
-import java.util.Scanner;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
+import travis.agent.WireFormat;
+import travis.model.attach.client.AgentJar;
+import travis.model.script.WireDecoder;
+
 public class NewProcess implements Attacher {
 
     private static final String DESCRIPTOR = "New";
@@ -74,10 +77,10 @@ public class NewProcess implements Attacher {
         running = true;
     }
 
-    private List<String> getCommands() {
-        String agentString = "-javaagent:" + AGENT_JAR
-                + "=dumpClasses=false,debug=false,stdout=true,unsafe=false,"
-                + "probeDescPath=.,noServer=true," + "script=" + SCRIPT_PATH;
+    private List<String> getCommands() throws IOException {
+        String agentString = "-javaagent:"
+                + AgentJar.getJar().getAbsolutePath() + "=stdout=true,"
+                + "probes=" + PROBES_PATH;
 
         List<String> commands = new ArrayList<String>();
         commands.add("java");
@@ -103,13 +106,16 @@ public class NewProcess implements Attacher {
     private class PrinterRunnable implements Runnable {
         @Override
         public void run() {
-            Scanner sc = new Scanner(process.getInputStream());
+            // Events are decoded, the program output is passed on as it is
+            InputStream in = process.getInputStream();
+            WireDecoder decoder = new WireDecoder(System.out);
+            byte[] buf = new byte[WireFormat.MAX_FRAME * 4];
             try {
-                for (String s = sc.nextLine(); s != null; s = sc.nextLine()) {
-                    byte[] bytes = s.getBytes();
-                    System.out.write(bytes, 0, bytes.length);
+                int n;
+                while ((n = in.read(buf)) != -1) {
+                    decoder.decode(buf, 0, n);
                 }
-            } catch (NoSuchElementException e) {
+            } catch (IOException e) {
                 // Occurs when process destroyed
             }
         }
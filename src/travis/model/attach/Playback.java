@@ -22,67 +22,97 @@
 package travis.model.attach;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.LineNumberReader;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Map;
-import java.util.Scanner;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.regex.Pattern;
 
 import travis.model.project.structure.StructComponent;
 import travis.model.project.structure.StructMethod;
 import travis.model.script.FileParser;
+import travis.model.script.RestoredTraces;
 import travis.model.script.ScriptHandler;
-import travis.model.script.TraceInfo;
+import travis.model.script.TraceBuffer;
+import travis.model.script.TraceBus;
+import travis.model.script.TraceCheckpoints;
+import travis.model.script.TraceFile;
+import travis.model.script.ThreadIndex;
+import travis.model.script.TracePrefetcher;
 import travis.util.Messages;
 
 public class Playback implements Attacher, Runnable {
 
     private static final String DESCRIPTOR = "Playback";
+    private static final long FRAME_TIME = 1000 / 25;
+
+    public static final double MIN_SPEED = 0.001;
+    public static final double MAX_SPEED = 1000;
 
     public enum Mode {
         PACKAGE, CLASS, METHOD
     }
 
-    private static final Pattern RETURN_CALL_PATTERN = Pattern.compile("-.*");
-
     private volatile Mode mode;
     private volatile Map<Integer, StructMethod> selectedIds;
 
     private final File script;
-    private final int tracesStart;
-    private final int tracesLength;
+    private final TraceFile traceFile;
+    private final TraceCheckpoints checkpoints;
+    private final ThreadIndex threadIndex;
+    private final long tracesLength;
 
     private volatile double playbackStart;
     private volatile double playbackEnd;
-    private volatile TraceInfo previousTrace;
-    private volatile LineNumberReader reader;
+    private volatile int previousMethodId;
+    private final TraceBuffer step;
+    private final TracePrefetcher reader;
+    private final Object readerLock;
+    // Whether the current trace of the reader was not passed yet
+    private boolean pending;
+    // Whether the reader was last moved backward
+    private boolean readingBackward;
+    // Played position published for other threads, set holding readerLock
+    private volatile long playedPosition;
+    // Changed with every seek so that a playing loop restarts its clock,
+    // guarded by readerLock
+    private int seekNo;
+    private TraceFile.Reader restoreReader;
     private volatile boolean needScannerRestart;
 
     private final ExecutorService player;
     private volatile boolean running;
     private volatile boolean finished;
-    private volatile long wait;
-
-    public Playback(FileParser fp) throws FileNotFoundException {
+    private volatile double speed;
+    private volatile boolean reverse;
+    private volatile int restoredTracesNo;
+    // Sorted ids of played threads or null for all
+    private volatile long[] threads;
+    private volatile long preloadBudget;
+
+    public Playback(FileParser fp) throws IOException {
         this.script = fp.getFile();
-        reader = new LineNumberReader(new FileReader(script));
+        traceFile = fp.getTraceFile();
+        reader = new TracePrefetcher(traceFile);
+        readerLock = new Object();
+        checkpoints = fp.getCheckpoints();
+        threadIndex = fp.getThreadIndex();
 
         mode = Mode.METHOD;
         selectedIds = Collections.emptyMap();
 
-        tracesStart = fp.getTracesStart();
         tracesLength = fp.getTracesLength();
 
         playbackStart = 0d;
         playbackEnd = 1d;
         needScannerRestart = true;
 
+        previousMethodId = -1;
+        step = new TraceBuffer(1024);
+
         player = Executors.newSingleThreadExecutor();
+        speed = 1d;
         running = false;
         finished = false;
     }
@@ -91,11 +121,11 @@ public class Playback implements Attacher, Runnable {
         return script;
     }
 
-    public int getTracesStart() {
-        return tracesStart;
+    public TraceFile getTraceFile() {
+        return traceFile;
     }
 
-    public int getTracesLength() {
+    public long getTracesLength() {
         return tracesLength;
     }
 
@@ -112,12 +142,64 @@ public class Playback implements Attacher, Runnable {
         this.selectedIds = map;
     }
 
+    public TraceCheckpoints getCheckpoints() {
+        return checkpoints;
+    }
+
+    public ThreadIndex getThreadIndex() {
+        return threadIndex;
+    }
+
+    /**
+     * @return ids of played threads in ascending order or null if all are
+     *         played
+     */
+    public long[] getThreads() {
+        long[] played = threads;
+        return played == null ? null : played.clone();
+    }
+
+    /**
+     * Plays only traces of the given threads from the current position and
+     * restores the graph with their traces.
+     *
+     * @param threadIds        ids of played threads or null for all
+     * @param restoredTracesNo number of traces before the position to publish
+     */
+    public void setThreads(long[] threadIds, int restoredTracesNo) {
+        long[] sorted = null;
+        if (threadIds != null) {
+            sorted = threadIds.clone();
+            Arrays.sort(sorted);
+        }
+        this.restoredTracesNo = restoredTracesNo;
+        synchronized (readerLock) {
+            long position = getPlayedPosition();
+            threads = sorted;
+            pending = false;
+            reader.setThreads(sorted, threadIndex);
+            reader.seek(position, readingBackward);
+            updatePlayedPosition();
+            try {
+                restoreTraces(position, restoredTracesNo);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private boolean isPlayed(long threadId) {
+        long[] played = threads;
+        return played == null || Arrays.binarySearch(played, threadId) >= 0;
+    }
+
     public void setPlaybackStart(double playbackStart) {
         if (playbackStart < 0 || playbackStart > 1)
             throw new IllegalArgumentException(
                     Messages.get("playback.position.exception"));
         this.playbackStart = playbackStart;
         needScannerRestart = true;
+        updatePreload();
         if (!isRunning())
             restartScanner();
     }
@@ -127,35 +209,163 @@ public class Playback implements Attacher, Runnable {
             throw new IllegalArgumentException(
                     Messages.get("playback.position.exception"));
         this.playbackEnd = playbackEnd;
+        updatePreload();
+    }
+
+    /**
+     * @param budget maximum number of bytes of traces of the playback range
+     *               kept in memory
+     */
+    public void setPreloadBudget(long budget) {
+        preloadBudget = budget;
+        updatePreload();
+    }
+
+    /**
+     * Keeps traces of the playback range in memory when only a part of the
+     * traces is played, so that looping over the range and seeking within
+     * it does not read the file. Traces from the checkpoint used to restore
+     * the start of the range are kept as well.
+     */
+    private void updatePreload() {
+        long from = (long) (playbackStart * tracesLength);
+        long to = (long) (playbackEnd * tracesLength) + 1;
+        if (from == 0 && to >= tracesLength) {
+            traceFile.preload(0, 0, 0);
+            return;
+        }
+        from = Math.max(0, from - restoredTracesNo);
+        int checkpoint = checkpoints == null ? -1 : checkpoints.find(from);
+        from = checkpoint == -1 ? 0 : checkpoints.getOrdinal(checkpoint);
+        traceFile.preload(from, to, preloadBudget);
     }
 
     public void setCurrentPos(double currentPos) {
+        setCurrentPos(currentPos, 0);
+    }
+
+    /**
+     * Moves playback to the given position and publishes the open calls and
+     * the traces leading to it, so that the graph can be drawn as if
+     * playback got there.
+     *
+     * @param restoredTracesNo number of traces before the position to publish
+     */
+    public void setCurrentPos(double currentPos, int restoredTracesNo) {
         if (currentPos < 0 || currentPos > 1)
             throw new IllegalArgumentException(
                     Messages.get("playback.position.exception"));
-        previousTrace = null;
-        restartScannerToPosition((int) (tracesStart + tracesLength * currentPos));
+        previousMethodId = -1;
+        this.restoredTracesNo = restoredTracesNo;
+        long position = (long) (tracesLength * currentPos);
+        boolean playing = isRunning();
+        boolean backward = reverse;
+        configureCurrentPos(position);
+        if (restoredTracesNo > 0) {
+            try {
+                synchronized (readerLock) {
+                    restoreTraces(position, restoredTracesNo);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (playing && backward)
+            playBackward(restoredTracesNo);
+        else if (playing)
+            play();
+    }
+
+    /**
+     * Replays traces from the closest checkpoint before the restored traces
+     * to find the calls open at their start. The restored traces replace
+     * all published ones. Must be called holding readerLock.
+     */
+    private void restoreTraces(long position, int tracesNo)
+            throws IOException {
+        if (restoreReader == null)
+            restoreReader = traceFile.openReader(0);
+        RestoredTraces restored = checkpoints.restore(restoreReader,
+                position, tracesNo, threads);
+        TraceBus.getInstance().publishReset(restored.getOpenCalls(),
+                restored.getTraces());
     }
 
-    public void setCurvesPerSecond(int curvesNo) {
-        wait = 1000 / curvesNo;
+    /**
+     * @param speed factor of recorded time to playback time, between
+     *              MIN_SPEED and MAX_SPEED
+     */
+    public void setSpeed(double speed) {
+        this.speed = Math.max(MIN_SPEED, Math.min(MAX_SPEED, speed));
+        reader.setSpeed(this.speed);
     }
 
     public double getCurrentPosPercent() {
-        if (reader.getLineNumber() <= tracesStart)
+        if (tracesLength == 0)
             return 0d;
-        return (double) (reader.getLineNumber() - tracesStart + 1)
-                / (tracesLength - 1);
+        return (double) playedPosition / tracesLength;
     }
 
+    /**
+     * Publishes all traces recorded up to the time playback reached, once
+     * per frame. Playback time runs at the speed factor from the call time
+     * of the first trace, or of the trace sought to after a seek, speed
+     * changes take effect from the current time. When playing backward the
+     * graph is restored at the reached position each frame instead. The
+     * direction is read every frame, so that reversing takes effect without
+     * waiting for the loop to end.
+     */
     @Override
     public void run() {
-        previousTrace = null;
+        long wallStart = 0;
+        long traceStart = 0;
+        double runSpeed = speed;
+        boolean backward = false;
+        boolean started = false;
+        int anchoredSeekNo = 0;
         while (running) {
             try {
                 finished = false;
-                previousTrace = readNextCall(previousTrace);
-                Thread.sleep(wait);
+                long now = System.nanoTime();
+                synchronized (readerLock) {
+                    if (!started || backward != reverse
+                            || anchoredSeekNo != seekNo) {
+                        started = true;
+                        backward = reverse;
+                        anchoredSeekNo = seekNo;
+                        setDirection(backward);
+                        wallStart = now;
+                        runSpeed = speed;
+                        boolean any = backward ? peekPrevious() : peek();
+                        traceStart = any ? reader.getCallTime() : 0;
+                    } else if (runSpeed != speed) {
+                        long elapsed = (long) ((now - wallStart) * runSpeed);
+                        traceStart += backward ? -elapsed : elapsed;
+                        wallStart = now;
+                        runSpeed = speed;
+                    }
+                    long played = (long) ((now - wallStart) * runSpeed);
+                    boolean more;
+                    if (backward) {
+                        long position = getPlayedPosition();
+                        more = rewindDue(traceStart - played);
+                        if (getPlayedPosition() != position)
+                            restoreTraces(getPlayedPosition(),
+                                    restoredTracesNo);
+                    } else {
+                        more = publishDue(traceStart + played);
+                    }
+                    updatePlayedPosition();
+                    // Finished holding the lock so that playing started
+                    // meanwhile is not stopped
+                    if (!more) {
+                        finish();
+                        return;
+                    }
+                }
+                long sleep = FRAME_TIME - (System.nanoTime() - now) / 1000000;
+                if (sleep > 0)
+                    Thread.sleep(sleep);
             } catch (InterruptedException e) {
                 e.printStackTrace();
             } catch (IOException e) {
@@ -164,74 +374,269 @@ public class Playback implements Attacher, Runnable {
         }
     }
 
-    private TraceInfo readNextCall(TraceInfo previousTrace)
-            throws InterruptedException, IOException {
-        String line;
-        for (double posPc = getCurrentPosPercent(); (line = reader.readLine()) != null
-                && posPc >= playbackStart && posPc <= playbackEnd; posPc = getCurrentPosPercent()) {
-            Scanner scanner = new Scanner(line);
-            boolean returnCall = scanner.hasNext(RETURN_CALL_PATTERN);
-            int methodId = Math.abs(scanner.nextInt());
-            long callTime = scanner.nextLong();
-            long threadId = scanner.nextLong();
-
-            TraceInfo trace = new TraceInfo(methodId, returnCall, callTime,
-                    threadId);
-            ScriptHandler.getInstance().sendTraceInfo(trace);
-
-            if (mode == Mode.METHOD && returnFromMethod(trace, previousTrace)) {
-                return trace;
-            } else if (mode == Mode.CLASS
-                    && returnFromClass(trace, previousTrace)) {
-                return trace;
-            } else if (mode == Mode.PACKAGE
-                    && returnFromPackage(trace, previousTrace)) {
-                return trace;
+    /**
+     * Publishes the played position, must be called holding readerLock
+     * after moving the reader.
+     */
+    private void updatePlayedPosition() {
+        playedPosition = getPlayedPosition();
+    }
+
+    /**
+     * @return ordinal of the first trace not played yet
+     */
+    private long getPlayedPosition() {
+        long position = reader.getPosition();
+        if (!pending)
+            return position;
+        return readingBackward ? position + 1 : position - 1;
+    }
+
+    /**
+     * Seeks the reader to the played position when the reading direction
+     * changes.
+     */
+    private void setDirection(boolean backward) {
+        if (backward == readingBackward)
+            return;
+        long position = getPlayedPosition();
+        pending = false;
+        readingBackward = backward;
+        reader.seek(position, backward);
+    }
+
+    /**
+     * Makes the trace before the played position current without passing
+     * it, unless it is already.
+     *
+     * @return false if there are no more traces in the range
+     */
+    private boolean peekPrevious() throws IOException {
+        if (pending)
+            return true;
+        if (reader.getPosition() <= playbackStart * tracesLength
+                || !reader.previous())
+            return false;
+        pending = true;
+        return true;
+    }
+
+    /**
+     * Moves back over traces with call times after the given time.
+     *
+     * @return false if the start of the range was reached
+     */
+    private boolean rewindDue(long time) throws IOException {
+        while (peekPrevious()) {
+            if (reader.getCallTime() <= time)
+                return true;
+            pending = false;
+        }
+        return false;
+    }
+
+    /**
+     * Makes the next trace within the playback range current without
+     * publishing it, unless it is already.
+     *
+     * @return false if there are no more traces in the range
+     */
+    private boolean peek() throws IOException {
+        if (pending)
+            return true;
+        long pos = reader.getPosition();
+        if (pos < playbackStart * tracesLength
+                || pos > playbackEnd * tracesLength || !reader.next())
+            return false;
+        pending = true;
+        return true;
+    }
+
+    /**
+     * Publishes traces with call times up to the given time as one batch.
+     *
+     * @return false if the end of the range was reached
+     */
+    private boolean publishDue(long time) throws IOException {
+        step.clear();
+        try {
+            while (peek()) {
+                if (reader.getCallTime() > time)
+                    return true;
+                publishCurrent();
             }
+            return false;
+        } finally {
+            if (!step.isEmpty())
+                TraceBus.getInstance().publish(step);
         }
+    }
 
-        // Can get to here only if did not return.
+    private void publishCurrent() {
+        pending = false;
+        step.add(reader.getMethodId(), reader.isReturnCall(),
+                reader.getCallTime(), reader.getThreadId());
+        if (step.size() == step.getCapacity()) {
+            TraceBus.getInstance().publish(step);
+            step.clear();
+        }
+    }
+
+    private void finish() throws InterruptedException {
         needScannerRestart = true;
         running = false;
         finished = true;
         Thread.sleep(50);
         ScriptHandler.getInstance().sendEmptyCall();
+    }
 
-        return previousTrace;
+    /**
+     * Pauses playback and publishes traces up to the next one that should be
+     * shown in the current mode.
+     */
+    public void stepForward() {
+        pause();
+        player.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    synchronized (readerLock) {
+                        setDirection(false);
+                        previousMethodId = readNextCall(previousMethodId);
+                        updatePlayedPosition();
+                    }
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
     }
 
-    private boolean returnFromMethod(TraceInfo trace, TraceInfo previousTrace) {
-        if (trace.isReturnCall() && previousTrace == null)
+    /**
+     * Pauses playback and moves it back to the previous trace that should be
+     * shown in the current mode, the graph is restored at its position.
+     *
+     * @param restoredTracesNo number of traces before the position to publish
+     */
+    public void stepBack(final int restoredTracesNo) {
+        pause();
+        this.restoredTracesNo = restoredTracesNo;
+        player.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    synchronized (readerLock) {
+                        setDirection(true);
+                        previousMethodId = readPreviousCall(previousMethodId);
+                        updatePlayedPosition();
+                        restoreTraces(getPlayedPosition(), restoredTracesNo);
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    /**
+     * Moves back over the last played trace and the ones before it up to
+     * the previous one that should be shown in the current mode.
+     *
+     * @return method id of the trace moved to or -1 if none
+     */
+    private int readPreviousCall(int previousMethodId) throws IOException {
+        if (!peekPrevious())
+            return -1;
+        pending = false;
+        while (peekPrevious()) {
+            int methodId = reader.getMethodId();
+            boolean returnCall = reader.isReturnCall();
+
+            if (mode == Mode.METHOD
+                    && returnFromMethod(methodId, returnCall, previousMethodId)) {
+                return methodId;
+            } else if (mode == Mode.CLASS
+                    && returnFromClass(methodId, returnCall, previousMethodId)) {
+                return methodId;
+            } else if (mode == Mode.PACKAGE
+                    && returnFromPackage(methodId, returnCall, previousMethodId)) {
+                return methodId;
+            }
+            pending = false;
+        }
+        return -1;
+    }
+
+    /**
+     * Reads and sends traces up to the next one that should be shown in the
+     * current mode.
+     *
+     * @return method id of the last shown trace or -1 if none
+     */
+    private int readNextCall(int previousMethodId)
+            throws InterruptedException, IOException {
+        step.clear();
+        while (peek()) {
+            int methodId = reader.getMethodId();
+            boolean returnCall = reader.isReturnCall();
+            publishCurrent();
+
+            if (mode == Mode.METHOD
+                    && returnFromMethod(methodId, returnCall, previousMethodId)) {
+                TraceBus.getInstance().publish(step);
+                return methodId;
+            } else if (mode == Mode.CLASS
+                    && returnFromClass(methodId, returnCall, previousMethodId)) {
+                TraceBus.getInstance().publish(step);
+                return methodId;
+            } else if (mode == Mode.PACKAGE
+                    && returnFromPackage(methodId, returnCall, previousMethodId)) {
+                TraceBus.getInstance().publish(step);
+                return methodId;
+            }
+        }
+        TraceBus.getInstance().publish(step);
+
+        // Can get to here only if did not return.
+        finish();
+        return previousMethodId;
+    }
+
+    private boolean returnFromMethod(int methodId, boolean returnCall,
+                                     int previousMethodId) {
+        if (returnCall && previousMethodId == -1)
             return false;
-        return selectedIds.containsKey(trace.getMethodId());
+        return selectedIds.containsKey(methodId);
     }
 
-    private boolean returnFromClass(TraceInfo trace, TraceInfo previousTrace) {
-        if (trace.isReturnCall() && previousTrace == null)
+    private boolean returnFromClass(int methodId, boolean returnCall,
+                                    int previousMethodId) {
+        if (returnCall && previousMethodId == -1)
             return false;
 
-        StructMethod currentMethod = selectedIds.get(trace.getMethodId());
-        if (previousTrace == null)
+        StructMethod currentMethod = selectedIds.get(methodId);
+        if (previousMethodId == -1)
             return currentMethod != null;
 
-        StructMethod previousMethod = selectedIds.get(previousTrace
-                .getMethodId());
+        StructMethod previousMethod = selectedIds.get(previousMethodId);
         if (currentMethod == null || previousMethod == null)
             return false;
 
         return !currentMethod.getParent().equals(previousMethod.getParent());
     }
 
-    private boolean returnFromPackage(TraceInfo trace, TraceInfo previousTrace) {
-        if (trace.isReturnCall() && previousTrace == null)
+    private boolean returnFromPackage(int methodId, boolean returnCall,
+                                      int previousMethodId) {
+        if (returnCall && previousMethodId == -1)
             return false;
 
-        StructMethod currentMethod = selectedIds.get(trace.getMethodId());
-        if (previousTrace == null)
+        StructMethod currentMethod = selectedIds.get(methodId);
+        if (previousMethodId == -1)
             return currentMethod != null;
 
-        StructMethod previousMethod = selectedIds.get(previousTrace
-                .getMethodId());
+        StructMethod previousMethod = selectedIds.get(previousMethodId);
         if (currentMethod == null || previousMethod == null)
             return false;
 
@@ -248,6 +653,14 @@ public class Playback implements Attacher, Runnable {
     @Override
     public void detach() {
         stop();
+        reader.close();
+        synchronized (readerLock) {
+            if (restoreReader != null) {
+                restoreReader.close();
+                restoreReader = null;
+            }
+        }
+        traceFile.preload(0, 0, 0);
     }
 
     @Override
@@ -257,35 +670,19 @@ public class Playback implements Attacher, Runnable {
 
     private void restartScanner() {
         if (needScannerRestart) {
-            int end = (int) (tracesStart + tracesLength * playbackStart);
+            long end = (long) (tracesLength * playbackStart);
             configureCurrentPos(end);
         }
     }
 
-    private void restartScannerToPosition(int position) {
-        boolean playing = isRunning();
-        configureCurrentPos(position);
-        if (playing)
-            play();
-    }
-
-    private void configureCurrentPos(int position) {
+    private void configureCurrentPos(long position) {
         running = false;
 
-        if (reader.getLineNumber() >= position) {
-            try {
-                reader = new LineNumberReader(new FileReader(script));
-            } catch (FileNotFoundException e) {
-                e.printStackTrace();
-            }
-        }
-
-        while (reader.getLineNumber() < position) {
-            try {
-                reader.readLine();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+        synchronized (readerLock) {
+            seekNo++;
+            pending = false;
+            reader.seek(position, readingBackward);
+            updatePlayedPosition();
         }
 
         needScannerRestart = false;
@@ -294,7 +691,25 @@ public class Playback implements Attacher, Runnable {
 
     public void play() {
         restartScanner();
-        running = true;
+        synchronized (readerLock) {
+            reverse = false;
+            running = true;
+        }
+        start();
+    }
+
+    /**
+     * Plays from the current position towards the start of the range.
+     *
+     * @param restoredTracesNo number of traces before the position to publish
+     *                         each frame
+     */
+    public void playBackward(int restoredTracesNo) {
+        this.restoredTracesNo = restoredTracesNo;
+        synchronized (readerLock) {
+            reverse = true;
+            running = true;
+        }
         start();
     }
 
@@ -0,0 +1,99 @@
+/*
+ * AgentClient.java
+ *
+ * Copyright (C) 2011-2012, Artur Jonkisz, <travis.source@gmail.com>
+ *
+ * This file is part of TraVis.
+ * See https://github.com/ajonkisz/TraVis for more info.
+ *
+ * TraVis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TraVis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with TraVis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package travis.model.attach.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import com.sun.tools.attach.AgentInitializationException;
+import com.sun.tools.attach.AgentLoadException;
+import com.sun.tools.attach.AttachNotSupportedException;
+import com.sun.tools.attach.VirtualMachine;
+import travis.agent.WireFormat;
+import travis.model.attach.Attacher;
+import travis.model.script.WireDecoder;
+
+/**
+ * Loads the TraVis agent into a running VM and decodes the events it sends
+ * back.
+ */
+public class AgentClient implements Runnable {
+
+    private final ServerSocket server;
+    private volatile Socket socket;
+
+    public AgentClient() throws IOException {
+        server = new ServerSocket(0, 1, InetAddress.getByName(null));
+    }
+
+    public void attach(int pid) throws IOException {
+        String options = "probes=" + Attacher.PROBES_PATH + ",port="
+                + server.getLocalPort();
+        VirtualMachine vm;
+        try {
+            vm = VirtualMachine.attach("" + pid);
+        } catch (AttachNotSupportedException e) {
+            throw new IOException(e);
+        }
+        try {
+            vm.loadAgent(AgentJar.getJar().getAbsolutePath(), options);
+        } catch (AgentLoadException e) {
+            throw new IOException(e);
+        } catch (AgentInitializationException e) {
+            throw new IOException(e);
+        } finally {
+            vm.detach();
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            socket = server.accept();
+            InputStream in = socket.getInputStream();
+            WireDecoder decoder = new WireDecoder();
+            byte[] buf = new byte[WireFormat.MAX_FRAME * 4];
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                decoder.decode(buf, 0, n);
+            }
+        } catch (IOException e) {
+            // Occurs when detached
+        } finally {
+            close();
+        }
+    }
+
+    public void close() {
+        try {
+            if (socket != null)
+                socket.close();
+            server.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+}
@@ -0,0 +1,104 @@
+/*
+ * AgentJar.java
+ *
+ * Copyright (C) 2011-2012, Artur Jonkisz, <travis.source@gmail.com>
+ *
+ * This file is part of TraVis.
+ * See https://github.com/ajonkisz/TraVis for more info.
+ *
+ * TraVis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TraVis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with TraVis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package travis.model.attach.client;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import travis.agent.TravisAgent;
+import travis.model.attach.Attacher;
+
+/**
+ * Packs the classes of the travis.agent package into a temporary agent jar.
+ * The jar puts itself and ASM on the boot class path so that instrumented
+ * classes of any class loader can see TraceRecorder.
+ */
+public class AgentJar {
+
+    private static final String[] CLASSES = {"AgentFlusher",
+            "ProbeClassAdapter", "ProbeClassWriter", "ProbeMethodAdapter",
+            "ProbeTransformer", "Probes", "ThreadBuffer", "TraceChannel",
+            "TraceRecorder", "TraceRecorder$Buffers",
+            "TraceRecorder$ShutdownHook", "TravisAgent", "WireFormat"};
+
+    private static File jar;
+
+    private AgentJar() {
+    }
+
+    public static synchronized File getJar() throws IOException {
+        if (jar == null || !jar.exists()) {
+            File newJar = File.createTempFile("travis-agent", ".jar");
+            newJar.deleteOnExit();
+            build(newJar);
+            jar = newJar;
+        }
+        return jar;
+    }
+
+    private static void build(File dest) throws IOException {
+        Manifest manifest = new Manifest();
+        Attributes attributes = manifest.getMainAttributes();
+        attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        attributes.putValue("Premain-Class", TravisAgent.class.getName());
+        attributes.putValue("Agent-Class", TravisAgent.class.getName());
+        attributes.putValue("Boot-Class-Path", dest.toURI().getRawPath()
+                + ' ' + new File(Attacher.ASM_JAR).toURI().getRawPath());
+        attributes.putValue("Can-Redefine-Classes", "true");
+        attributes.putValue("Can-Retransform-Classes", "true");
+
+        String packagePath = TravisAgent.class.getPackage().getName()
+                .replace('.', '/');
+        JarOutputStream jos = new JarOutputStream(new FileOutputStream(dest),
+                manifest);
+        try {
+            byte[] buffer = new byte[8192];
+            for (String className : CLASSES) {
+                String entry = packagePath + '/' + className + ".class";
+                InputStream in = AgentJar.class.getClassLoader()
+                        .getResourceAsStream(entry);
+                if (in == null)
+                    throw new FileNotFoundException(entry);
+                try {
+                    jos.putNextEntry(new JarEntry(entry));
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        jos.write(buffer, 0, read);
+                    }
+                    jos.closeEntry();
+                } finally {
+                    in.close();
+                }
+            }
+        } finally {
+            jos.close();
+        }
+    }
+
+}
@@ -0,0 +1,199 @@
+/*
+ * CallStacks.java
+ *
+ * Copyright (C) 2011-2012, Artur Jonkisz, <travis.source@gmail.com>
+ *
+ * This file is part of TraVis.
+ * See https://github.com/ajonkisz/TraVis for more info.
+ *
+ * TraVis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TraVis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with TraVis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package travis.model.script;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Open calls of every thread. Returns without an open call are counted
+ * instead, so that stacks of a range of traces can later be applied on top
+ * of the stacks at the start of the range.
+ */
+public class CallStacks {
+
+    private final Map<Long, Stack> stacks;
+    private long lastThreadId;
+    private Stack last;
+
+    public CallStacks() {
+        stacks = new LinkedHashMap<Long, Stack>();
+    }
+
+    public void add(int methodId, boolean returnCall, long callTime,
+                    long threadId) {
+        Stack stack = getStack(threadId);
+        if (returnCall)
+            stack.pop(1);
+        else
+            stack.push(methodId, callTime);
+    }
+
+    private Stack getStack(long threadId) {
+        if (last != null && lastThreadId == threadId)
+            return last;
+        Stack stack = stacks.get(threadId);
+        if (stack == null) {
+            stack = new Stack(8);
+            stacks.put(threadId, stack);
+        }
+        lastThreadId = threadId;
+        last = stack;
+        return stack;
+    }
+
+    /**
+     * Applies stacks collected from the traces following these ones.
+     */
+    void apply(CallStacks next) {
+        for (Map.Entry<Long, Stack> e : next.stacks.entrySet()) {
+            Stack source = e.getValue();
+            Stack stack = getStack(e.getKey());
+            stack.pop(source.unmatchedReturns);
+            for (int i = 0; i < source.size; i++)
+                stack.push(source.methods[i], source.times[i]);
+        }
+    }
+
+    /**
+     * Adds open calls to the buffer as call traces, thread by thread starting
+     * from the outermost call.
+     */
+    public void addTo(TraceBuffer buffer) {
+        addTo(buffer, null);
+    }
+
+    /**
+     * Adds open calls of the given threads to the buffer as call traces.
+     *
+     * @param threadIds sorted ids of the added threads or null for all
+     */
+    public void addTo(TraceBuffer buffer, long[] threadIds) {
+        for (Map.Entry<Long, Stack> e : stacks.entrySet()) {
+            if (threadIds != null
+                    && Arrays.binarySearch(threadIds, e.getKey()) < 0)
+                continue;
+            Stack stack = e.getValue();
+            for (int i = 0; i < stack.size; i++)
+                buffer.add(stack.methods[i], false, stack.times[i], e.getKey());
+        }
+    }
+
+    /**
+     * @return number of open calls of all threads
+     */
+    public int getCallsNo() {
+        int calls = 0;
+        for (Stack stack : stacks.values())
+            calls += stack.size;
+        return calls;
+    }
+
+    /**
+     * @return copy of non empty stacks
+     */
+    CallStacks copy() {
+        CallStacks copy = new CallStacks();
+        for (Map.Entry<Long, Stack> e : stacks.entrySet()) {
+            Stack stack = e.getValue();
+            if (stack.size > 0)
+                copy.stacks.put(e.getKey(), stack.copy());
+        }
+        return copy;
+    }
+
+    static CallStacks read(ByteBuffer buf) {
+        CallStacks callStacks = new CallStacks();
+        int threads = buf.getInt();
+        for (int t = 0; t < threads; t++) {
+            long threadId = buf.getLong();
+            int size = buf.getInt();
+            Stack stack = new Stack(size);
+            for (int i = 0; i < size; i++)
+                stack.push(buf.getInt(), buf.getLong());
+            callStacks.stacks.put(threadId, stack);
+        }
+        return callStacks;
+    }
+
+    void write(DataOutput out) throws IOException {
+        int threads = 0;
+        for (Stack stack : stacks.values()) {
+            if (stack.size > 0)
+                threads++;
+        }
+        out.writeInt(threads);
+        for (Map.Entry<Long, Stack> e : stacks.entrySet()) {
+            Stack stack = e.getValue();
+            if (stack.size == 0)
+                continue;
+            out.writeLong(e.getKey());
+            out.writeInt(stack.size);
+            for (int i = 0; i < stack.size; i++) {
+                out.writeInt(stack.methods[i]);
+                out.writeLong(stack.times[i]);
+            }
+        }
+    }
+
+    private static class Stack {
+        private int[] methods;
+        private long[] times;
+        private int size;
+        private int unmatchedReturns;
+
+        Stack(int capacity) {
+            methods = new int[Math.max(1, capacity)];
+            times = new long[methods.length];
+        }
+
+        void push(int methodId, long time) {
+            if (size == methods.length) {
+                methods = Arrays.copyOf(methods, size * 2);
+                times = Arrays.copyOf(times, size * 2);
+            }
+            methods[size] = methodId;
+            times[size] = time;
+            size++;
+        }
+
+        void pop(int calls) {
+            int popped = Math.min(calls, size);
+            size -= popped;
+            unmatchedReturns += calls - popped;
+        }
+
+        Stack copy() {
+            Stack copy = new Stack(size);
+            System.arraycopy(methods, 0, copy.methods, 0, size);
+            System.arraycopy(times, 0, copy.times, 0, size);
+            copy.size = size;
+            copy.unmatchedReturns = unmatchedReturns;
+            return copy;
+        }
+    }
+
+}
@@ -0,0 +1,267 @@
+/*
+ * DepthPyramid.java
+ *
+ * Copyright (C) 2011-2012, Artur Jonkisz, <travis.source@gmail.com>
+ *
+ * This file is part of TraVis.
+ * See https://github.com/ajonkisz/TraVis for more info.
+ *
+ * TraVis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TraVis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with TraVis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package travis.model.script;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Minimum, maximum and average call depth of traces at several resolutions.
+ * Level 0 buckets hold {@link #BUCKET_SIZE} consecutive traces and every
+ * further level merges pairs of buckets of the level below, so any range of
+ * traces is covered by a few buckets of a suitable level.
+ */
+public class DepthPyramid {
+
+    public static final int BUCKET_SHIFT = 8;
+    public static final int BUCKET_SIZE = 1 << BUCKET_SHIFT;
+
+    private final long eventCount;
+    private final int[][] mins;
+    private final int[][] maxs;
+    private final float[][] avgs;
+
+    DepthPyramid(long eventCount, int[] min, int[] max, float[] avg) {
+        this.eventCount = eventCount;
+        int levels = 1;
+        for (int n = min.length; n > 1; n = (n + 1) / 2)
+            levels++;
+        mins = new int[levels][];
+        maxs = new int[levels][];
+        avgs = new float[levels][];
+        mins[0] = min;
+        maxs[0] = max;
+        avgs[0] = avg;
+        for (int l = 1; l < levels; l++) {
+            int n = (mins[l - 1].length + 1) / 2;
+            mins[l] = new int[n];
+            maxs[l] = new int[n];
+            avgs[l] = new float[n];
+            for (int i = 0; i < n; i++) {
+                int left = 2 * i;
+                int right = Math.min(left + 1, mins[l - 1].length - 1);
+                mins[l][i] = Math.min(mins[l - 1][left], mins[l - 1][right]);
+                maxs[l][i] = Math.max(maxs[l - 1][left], maxs[l - 1][right]);
+                long leftCount = getBucketCount(l - 1, left);
+                long rightCount = right == left ? 0
+                        : getBucketCount(l - 1, right);
+                avgs[l][i] = (avgs[l - 1][left] * leftCount
+                        + avgs[l - 1][right] * rightCount)
+                        / (leftCount + rightCount);
+            }
+        }
+    }
+
+    static DepthPyramid read(ByteBuffer buf) {
+        long eventCount = buf.getLong();
+        int n = buf.getInt();
+        int[] min = new int[n];
+        int[] max = new int[n];
+        float[] avg = new float[n];
+        for (int i = 0; i < n; i++) {
+            min[i] = buf.getInt();
+            max[i] = buf.getInt();
+            avg[i] = buf.getFloat();
+        }
+        return new DepthPyramid(eventCount, min, max, avg);
+    }
+
+    void write(DataOutput out) throws IOException {
+        out.writeLong(eventCount);
+        out.writeInt(mins[0].length);
+        for (int i = 0; i < mins[0].length; i++) {
+            out.writeInt(mins[0][i]);
+            out.writeInt(maxs[0][i]);
+            out.writeFloat(avgs[0][i]);
+        }
+    }
+
+    private long getBucketCount(int level, int bucket) {
+        long from = (long) bucket << (BUCKET_SHIFT + level);
+        long to = (long) (bucket + 1) << (BUCKET_SHIFT + level);
+        return Math.min(to, eventCount) - from;
+    }
+
+    public long getEventCount() {
+        return eventCount;
+    }
+
+    public int getMaxDepth() {
+        int[] top = maxs[maxs.length - 1];
+        return top.length == 0 ? 0 : top[0];
+    }
+
+    /**
+     * Fills the depth envelope of traces from ordinal from to ordinal to,
+     * split evenly into min.length columns. Every column is covered by at most
+     * three buckets of a level fitting its width. Columns narrower than a
+     * level 0 bucket get the values of the bucket they fall into.
+     */
+    public void sample(long from, long to, int[] min, int[] max, float[] avg) {
+        int columns = min.length;
+        if (eventCount == 0 || columns == 0) {
+            Arrays.fill(min, 0);
+            Arrays.fill(max, 0);
+            Arrays.fill(avg, 0);
+            return;
+        }
+        double step = (double) (to - from) / columns;
+        int level = 0;
+        while (level < mins.length - 1
+                && (2L << (BUCKET_SHIFT + level)) <= step)
+            level++;
+        int shift = BUCKET_SHIFT + level;
+        for (int c = 0; c < columns; c++) {
+            long a = Math.min(from + (long) (c * step), eventCount - 1);
+            long b = Math.max(a + 1, Math.min(from + (long) ((c + 1) * step),
+                    eventCount));
+            int first = (int) (a >> shift);
+            int last = (int) ((b - 1) >> shift);
+            int lo = Integer.MAX_VALUE;
+            int hi = 0;
+            double sum = 0;
+            long count = 0;
+            for (int i = first; i <= last; i++) {
+                lo = Math.min(lo, mins[level][i]);
+                hi = Math.max(hi, maxs[level][i]);
+                long n = getBucketCount(level, i);
+                sum += avgs[level][i] * n;
+                count += n;
+            }
+            min[c] = lo;
+            max[c] = hi;
+            avg[c] = (float) (sum / count);
+        }
+    }
+
+    /**
+     * Collects level 0 buckets. Traces can be added one by one, following
+     * the depth, or as known depths at any ordinal, which is safe from many
+     * threads as long as every thread covers whole buckets except at the ends
+     * of its range.
+     */
+    static class Builder {
+
+        private int[] min;
+        private int[] max;
+        private long[] sum;
+        private long eventCount;
+        private int depth;
+
+        Builder() {
+            this(0);
+        }
+
+        Builder(long eventCount) {
+            int n = Math.max(16, getBucketsNo(eventCount));
+            min = new int[n];
+            max = new int[n];
+            sum = new long[n];
+            Arrays.fill(min, Integer.MAX_VALUE);
+        }
+
+        private static int getBucketsNo(long eventCount) {
+            return (int) ((eventCount + BUCKET_SIZE - 1) >> BUCKET_SHIFT);
+        }
+
+        /**
+         * Adds the next trace, a return never takes the depth below zero.
+         */
+        void add(boolean returnCall) {
+            if (returnCall) {
+                if (depth > 0)
+                    depth--;
+            } else {
+                depth++;
+            }
+            int bucket = (int) (eventCount >> BUCKET_SHIFT);
+            if (bucket == min.length)
+                grow(bucket * 2);
+            min[bucket] = Math.min(min[bucket], depth);
+            max[bucket] = Math.max(max[bucket], depth);
+            sum[bucket] += depth;
+            eventCount++;
+        }
+
+        /**
+         * Merges depths of a bucket computed elsewhere.
+         */
+        synchronized void merge(int bucket, int bucketMin, int bucketMax,
+                                long bucketSum) {
+            min[bucket] = Math.min(min[bucket], bucketMin);
+            max[bucket] = Math.max(max[bucket], bucketMax);
+            sum[bucket] += bucketSum;
+        }
+
+        /**
+         * Sets depths of a bucket not shared with any other thread.
+         */
+        void set(int bucket, int bucketMin, int bucketMax, long bucketSum) {
+            min[bucket] = bucketMin;
+            max[bucket] = bucketMax;
+            sum[bucket] = bucketSum;
+        }
+
+        private void grow(int length) {
+            int oldLength = min.length;
+            min = Arrays.copyOf(min, length);
+            max = Arrays.copyOf(max, length);
+            sum = Arrays.copyOf(sum, length);
+            Arrays.fill(min, oldLength, length, Integer.MAX_VALUE);
+        }
+
+        Builder copy() {
+            Builder copy = new Builder();
+            copy.min = min.clone();
+            copy.max = max.clone();
+            copy.sum = sum.clone();
+            copy.eventCount = eventCount;
+            copy.depth = depth;
+            return copy;
+        }
+
+        long getEventCount() {
+            return eventCount;
+        }
+
+        DepthPyramid build(long events) {
+            int n = getBucketsNo(events);
+            int[] bucketMin = Arrays.copyOf(min, n);
+            int[] bucketMax = Arrays.copyOf(max, n);
+            float[] avg = new float[n];
+            for (int i = 0; i < n; i++) {
+                long count = Math.min(BUCKET_SIZE, events
+                        - ((long) i << BUCKET_SHIFT));
+                avg[i] = (float) sum[i] / count;
+            }
+            return new DepthPyramid(events, bucketMin, bucketMax, avg);
+        }
+
+        DepthPyramid build() {
+            return build(eventCount);
+        }
+
+    }
+
+}
@@ -21,19 +21,20 @@
 
 package travis.model.script;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.LineNumberReader;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import javax.swing.tree.TreePath;
 
 import travis.model.project.StructStub;
@@ -43,15 +44,29 @@ import travis.view.project.tree.ProjectTreeNode;
 
 public class FileParser {
 
+    private static final ForkJoinPool POOL = new ForkJoinPool();
+    // Number of blocks below which a task is not split any further
+    private static final int BLOCKS_PER_TASK = 4;
+    private static final int READ_BUFFER_SIZE = 1 << 16;
+
     private final StructComponent root;
     private final File file;
-    private final int tracesStart;
-    private final int tracesLength;
+    private final TraceFile traceFile;
     private final TreePath[] treePaths;
-    private final List<Integer> depths;
-    private int maxDepth;
+    private DepthPyramid depths;
+    private TraceCheckpoints checkpoints;
+    private ThreadIndex threadIndex;
 
     public FileParser(File script) throws IOException, ClassNotFoundException {
+        this(script, TraceFormat.CHECKPOINT_INTERVAL);
+    }
+
+    /**
+     * @param checkpointInterval minimal number of traces between call stack
+     *                           checkpoints computed for files without them
+     */
+    public FileParser(File script, int checkpointInterval)
+            throws IOException, ClassNotFoundException {
         file = script;
 
         FileInputStream fis = new FileInputStream(file);
@@ -63,58 +78,355 @@ public class FileParser {
         ois.close();
         fis.close();
 
+        if (TraceFile.isTraceFile(file)) {
+            traceFile = new TraceFile(file);
+        } else {
+            // Old text format, convert it so that it can be read as any other
+            traceFile = new TraceFile(convertTextFile());
+        }
+
+        depths = traceFile.readDepthPyramid();
+        checkpoints = traceFile.readCheckpoints();
+        threadIndex = traceFile.readThreadIndex();
+        if (depths == null || checkpoints == null || threadIndex == null)
+            scanTraces(checkpointInterval);
+    }
+
+    /**
+     * Computes the call depths, call stack checkpoints and thread index of
+     * all events, blocks are processed in parallel. The first pass finds the
+     * net change and the minimum of the depth relative to the start of every
+     * block, along with the open calls left and returns unmatched by every
+     * block and its threads.
+     * As a return never takes the depth below zero, a block starting at depth
+     * d ends at net + max(d, -min), which gives the start depths of all
+     * blocks. The second pass walks the blocks again from their start depths.
+     */
+    private void scanTraces(int checkpointInterval) {
+        int blockCount = traceFile.getBlockCount();
+        int[] nets = new int[blockCount];
+        int[] mins = new int[blockCount];
+        int[] starts = new int[blockCount];
+        CallStacks[] blockStacks = checkpoints == null
+                ? new CallStacks[blockCount] : null;
+        DepthPyramid.Builder builder = depths == null
+                ? new DepthPyramid.Builder(traceFile.getEventCount()) : null;
+        ThreadIndex.Builder threads = threadIndex == null
+                ? new ThreadIndex.Builder() : null;
+
+        POOL.invoke(new DepthTask(builder, nets, mins, starts, blockStacks,
+                threads, 0, blockCount, false));
+        if (threadIndex == null)
+            threadIndex = threads.build();
+        if (checkpoints == null)
+            checkpoints = collectCheckpoints(blockStacks, checkpointInterval);
+        if (depths == null) {
+            int depth = 0;
+            for (int i = 0; i < blockCount; i++) {
+                starts[i] = depth;
+                depth = nets[i] + Math.max(depth, -mins[i]);
+            }
+            POOL.invoke(new DepthTask(builder, nets, mins, starts, null, null,
+                    0, blockCount, true));
+            depths = builder.build(traceFile.getEventCount());
+        }
+    }
+
+    private TraceCheckpoints collectCheckpoints(CallStacks[] blockStacks,
+                                                int interval) {
+        TraceCheckpoints result = new TraceCheckpoints();
+        if (interval <= 0)
+            return result;
+        CallStacks stacks = new CallStacks();
+        long lastCheckpoint = 0;
+        for (int i = 0; i < blockStacks.length; i++) {
+            long ordinal = traceFile.getBlockOrdinal(i);
+            if (ordinal - lastCheckpoint >= interval) {
+                result.add(ordinal, stacks.copy());
+                lastCheckpoint = ordinal;
+            }
+            stacks.apply(blockStacks[i]);
+            blockStacks[i] = null;
+        }
+        long end = traceFile.getEventCount();
+        if (end - lastCheckpoint >= interval)
+            result.add(end, stacks);
+        return result;
+    }
+
+    private class DepthTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final DepthPyramid.Builder builder;
+        private final int[] nets;
+        private final int[] mins;
+        private final int[] starts;
+        private final CallStacks[] blockStacks;
+        private final ThreadIndex.Builder threadBuilder;
+        private final int from;
+        private final int to;
+        private final boolean fromStarts;
+
+        DepthTask(DepthPyramid.Builder builder, int[] nets, int[] mins,
+                  int[] starts, CallStacks[] blockStacks,
+                  ThreadIndex.Builder threadBuilder, int from, int to,
+                  boolean fromStarts) {
+            this.builder = builder;
+            this.nets = nets;
+            this.mins = mins;
+            this.starts = starts;
+            this.blockStacks = blockStacks;
+            this.threadBuilder = threadBuilder;
+            this.from = from;
+            this.to = to;
+            this.fromStarts = fromStarts;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > BLOCKS_PER_TASK) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new DepthTask(builder, nets, mins, starts,
+                        blockStacks, threadBuilder, from, mid, fromStarts),
+                        new DepthTask(builder, nets, mins, starts, blockStacks,
+                                threadBuilder, mid, to, fromStarts));
+                return;
+            }
+            int[] methods = new int[TraceFormat.BLOCK_EVENTS];
+            long[] times = new long[TraceFormat.BLOCK_EVENTS];
+            long[] threads = new long[TraceFormat.BLOCK_EVENTS];
+            TraceBlockCodec codec = new TraceBlockCodec();
+            try {
+                for (int b = from; b < to; b++) {
+                    int count = traceFile.readBlock(b, methods, times,
+                            threads, codec);
+                    if (fromStarts)
+                        collectBuckets(b, methods, count);
+                    else
+                        scanBlock(b, methods, times, threads, count);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            } finally {
+                codec.end();
+            }
+        }
+
+        private void scanBlock(int block, int[] methods, long[] times,
+                               long[] threads, int count) {
+            int depth = 0;
+            int min = 0;
+            CallStacks stacks = blockStacks == null ? null : new CallStacks();
+            for (int i = 0; i < count; i++) {
+                if (stacks != null) {
+                    boolean returnCall = methods[i] < 0;
+                    stacks.add(returnCall ? ~methods[i] : methods[i],
+                            returnCall, times[i], threads[i]);
+                }
+                if (methods[i] < 0) {
+                    depth--;
+                    min = Math.min(min, depth);
+                } else {
+                    depth++;
+                }
+            }
+            nets[block] = depth;
+            mins[block] = min;
+            if (stacks != null)
+                blockStacks[block] = stacks;
+            if (threadBuilder != null)
+                threadBuilder.addBlock(block, threads, count);
+        }
+
+        private void collectBuckets(int block, int[] methods, int count) {
+            long ordinal = traceFile.getBlockOrdinal(block);
+            long end = ordinal + count;
+            int depth = starts[block];
+            int bucketMin = Integer.MAX_VALUE;
+            int bucketMax = 0;
+            long bucketSum = 0;
+            for (int i = 0; i < count; i++, ordinal++) {
+                if (methods[i] < 0) {
+                    if (depth > 0)
+                        depth--;
+                } else {
+                    depth++;
+                }
+                bucketMin = Math.min(bucketMin, depth);
+                bucketMax = Math.max(bucketMax, depth);
+                bucketSum += depth;
+
+                long next = ordinal + 1;
+                if ((next & (DepthPyramid.BUCKET_SIZE - 1)) == 0
+                        || next == end) {
+                    int bucket = (int) (ordinal >> DepthPyramid.BUCKET_SHIFT);
+                    long bucketStart = (long) bucket
+                            << DepthPyramid.BUCKET_SHIFT;
+                    // Buckets crossing block boundaries are shared
+                    if (bucketStart >= end - count && next - bucketStart
+                            == DepthPyramid.BUCKET_SIZE) {
+                        builder.set(bucket, bucketMin, bucketMax, bucketSum);
+                    } else {
+                        builder.merge(bucket, bucketMin, bucketMax,
+                                bucketSum);
+                    }
+                    bucketMin = Integer.MAX_VALUE;
+                    bucketMax = 0;
+                    bucketSum = 0;
+                }
+            }
+        }
+
+    }
+
+    private File convertTextFile() throws IOException {
         ByteArrayOutputStream bos = new ByteArrayOutputStream();
         ObjectOutputStream oos = new ObjectOutputStream(bos);
         oos.writeObject(treePaths);
 
-        LineNumberReader lnr = new LineNumberReader(new FileReader(file));
-        lnr.skip(bos.size());
-        // Consume till line ends and TREEPATHS_TERMINATING_SEQUENCE
-        lnr.readLine();
-        lnr.readLine();
-
-        String s;
-        Matcher m = Pattern.compile(ScriptHandler.HEADER_TERMINATING_SEQUENCE)
-                .matcher("");
-        while ((s = lnr.readLine()) != null) {
-            m.reset(s);
-            if (m.matches())
-                break;
-        }
+        InputStream in = new BufferedInputStream(new FileInputStream(file),
+                READ_BUFFER_SIZE);
+        try {
+            long toSkip = bos.size();
+            while (toSkip > 0) {
+                long skipped = in.skip(toSkip);
+                if (skipped <= 0)
+                    throw new EOFException();
+                toSkip -= skipped;
+            }
+            // Consume till line ends and TREEPATHS_TERMINATING_SEQUENCE
+            readLine(in);
+            readLine(in);
 
-        tracesStart = lnr.getLineNumber();
+            String s;
+            List<TraceMethod> methods = new ArrayList<TraceMethod>();
+            while ((s = readLine(in)) != null
+                    && !s.equals(ScriptHandler.HEADER_TERMINATING_SEQUENCE)) {
+                String[] parts = s.split(" ");
+                if (parts.length == 6) {
+                    methods.add(new TraceMethod(Integer.parseInt(parts[0]),
+                            parts[1], Integer.parseInt(parts[2]), parts[3],
+                            parts[4], Integer.parseInt(parts[5])));
+                }
+            }
 
-        // Skip until the end reached
-        depths = new ArrayList<Integer>(5000);
-        int depth = 0;
-        while ((s = lnr.readLine()) != null) {
-            if (s.charAt(0) == '-') {
-                if (depth > 0)
-                    depth--;
-            } else {
-                depth++;
+            File converted = File.createTempFile("travis", ".vis");
+            converted.deleteOnExit();
+            TraceFileWriter writer = new TraceFileWriter(converted, treePaths,
+                    methods);
+            try {
+                parseTextTraces(in, writer);
+            } finally {
+                writer.close();
             }
-            depths.add(depth);
-            maxDepth = Math.max(maxDepth, depth);
+            return converted;
+        } finally {
+            in.close();
         }
+    }
 
-        tracesLength = lnr.getLineNumber() - tracesStart + 1;
+    /**
+     * Reads a line terminated as in {@link java.io.BufferedReader#readLine()}.
+     *
+     * @return next line without the line terminator or null at the end of
+     *         the stream
+     */
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            if (b == '\r') {
+                in.mark(1);
+                if (in.read() != '\n')
+                    in.reset();
+                break;
+            }
+            line.write(b);
+        }
+        if (b == -1 && line.size() == 0)
+            return null;
+        return line.toString("UTF-8");
     }
 
-    public List<Integer> getDepths() {
+    /**
+     * Parses "methodId callTime threadId" lines byte by byte, a negative
+     * method id marks a return call. Lines with other content are skipped.
+     */
+    private static void parseTextTraces(InputStream in,
+                                        TraceFileWriter writer)
+            throws IOException {
+        byte[] buf = new byte[READ_BUFFER_SIZE];
+        long[] values = new long[3];
+        boolean[] negative = new boolean[3];
+        int field = 0;
+        boolean digits = false;
+        boolean valid = true;
+        int read;
+        while ((read = in.read(buf)) != -1) {
+            for (int i = 0; i < read; i++) {
+                byte b = buf[i];
+                if (b >= '0' && b <= '9') {
+                    values[field] = values[field] * 10 + (b - '0');
+                    digits = true;
+                } else if (b == ' ') {
+                    if (!digits || field == 2)
+                        valid = false;
+                    else
+                        field++;
+                    digits = false;
+                } else if (b == '-' && !digits && !negative[field]) {
+                    negative[field] = true;
+                } else if (b == '\n') {
+                    if (valid && digits && field == 2) {
+                        writer.add((int) values[0], negative[0],
+                                negative[1] ? -values[1] : values[1],
+                                negative[2] ? -values[2] : values[2]);
+                    }
+                    for (int f = 0; f < 3; f++) {
+                        values[f] = 0;
+                        negative[f] = false;
+                    }
+                    field = 0;
+                    digits = false;
+                    valid = true;
+                } else if (b != '\r') {
+                    valid = false;
+                }
+            }
+        }
+        if (valid && digits && field == 2) {
+            writer.add((int) values[0], negative[0],
+                    negative[1] ? -values[1] : values[1],
+                    negative[2] ? -values[2] : values[2]);
+        }
+    }
+
+    public DepthPyramid getDepths() {
         return depths;
     }
 
+    public TraceCheckpoints getCheckpoints() {
+        return checkpoints;
+    }
+
+    public ThreadIndex getThreadIndex() {
+        return threadIndex;
+    }
+
     public int getMaxDepth() {
-        return maxDepth;
+        return depths.getMaxDepth();
     }
 
-    public int getTracesLength() {
-        return tracesLength;
+    /**
+     * @return number of traces in the file
+     */
+    public long getTracesLength() {
+        return traceFile.getEventCount();
     }
 
-    public int getTracesStart() {
-        return tracesStart;
+    public TraceFile getTraceFile() {
+        return traceFile;
     }
 
     public StructComponent getRoot() {
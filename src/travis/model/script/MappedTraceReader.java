@@ -0,0 +1,163 @@
+/*
+ * MappedTraceReader.java
+ *
+ * Copyright (C) 2011-2012, Artur Jonkisz, <travis.source@gmail.com>
+ *
+ * This file is part of TraVis.
+ * See https://github.com/ajonkisz/TraVis for more info.
+ *
+ * TraVis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TraVis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with TraVis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package travis.model.script;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Random access to event blocks of a trace file by event ordinal. The EVENTS
+ * section is mapped into memory in segments of whole blocks, so any block is
+ * read at the same cost and all readers share the mapped pages. Falls back
+ * to positional reads if the section cannot be mapped. Thread safe.
+ */
+public class MappedTraceReader {
+
+    private static final long MAX_SEGMENT = 1 << 30;
+
+    private final FileChannel channel;
+    private final long eventsOffset;
+    private final long eventCount;
+    private final long[] blockOrdinals;
+    private final long[] blockOffsets;
+    private final int[] blockLengths;
+
+    private final MappedByteBuffer[] segments;
+    private final long[] segmentOffsets;
+    private final int[] blockSegments;
+
+    MappedTraceReader(FileChannel channel, long eventsOffset, long eventCount,
+                      long[] blockOrdinals, long[] blockOffsets,
+                      int[] blockLengths) {
+        this.channel = channel;
+        this.eventsOffset = eventsOffset;
+        this.eventCount = eventCount;
+        this.blockOrdinals = blockOrdinals;
+        this.blockOffsets = blockOffsets;
+        this.blockLengths = blockLengths;
+
+        blockSegments = new int[blockOrdinals.length];
+        List<MappedByteBuffer> mapped = new ArrayList<MappedByteBuffer>();
+        List<Long> offsets = new ArrayList<Long>();
+        try {
+            int first = 0;
+            while (first < blockOrdinals.length) {
+                long start = blockOffsets[first];
+                int last = first;
+                while (last + 1 < blockOrdinals.length && blockOffsets[last + 1]
+                        + blockLengths[last + 1] - start <= MAX_SEGMENT)
+                    last++;
+                long length = blockOffsets[last] + blockLengths[last] - start;
+                mapped.add(channel.map(FileChannel.MapMode.READ_ONLY,
+                        eventsOffset + start, length));
+                offsets.add(start);
+                for (int i = first; i <= last; i++)
+                    blockSegments[i] = mapped.size() - 1;
+                first = last + 1;
+            }
+        } catch (IOException e) {
+            // Address space exhausted, read blocks from the channel instead
+            mapped = null;
+        }
+
+        if (mapped == null) {
+            segments = null;
+            segmentOffsets = null;
+        } else {
+            segments = mapped.toArray(new MappedByteBuffer[mapped.size()]);
+            segmentOffsets = new long[offsets.size()];
+            for (int i = 0; i < segmentOffsets.length; i++)
+                segmentOffsets[i] = offsets.get(i);
+        }
+    }
+
+    public long getEventCount() {
+        return eventCount;
+    }
+
+    public int getBlockCount() {
+        return blockOrdinals.length;
+    }
+
+    public long getBlockOrdinal(int block) {
+        return blockOrdinals[block];
+    }
+
+    /**
+     * @return position of the EVENTS section in the file
+     */
+    public long getEventsOffset() {
+        return eventsOffset;
+    }
+
+    /**
+     * @return offset of the block within the EVENTS section
+     */
+    public long getBlockOffset(int block) {
+        return blockOffsets[block];
+    }
+
+    public int getBlockLength(int block) {
+        return blockLengths[block];
+    }
+
+    /**
+     * @return index of the block containing the event with the given ordinal
+     */
+    public int findBlock(long ordinal) {
+        int i = Arrays.binarySearch(blockOrdinals, ordinal);
+        return i >= 0 ? i : -i - 2;
+    }
+
+    public boolean isMapped() {
+        return segments != null;
+    }
+
+    /**
+     * Copies the stored block into the buffer, which must have exactly the
+     * length of the block remaining. The buffer is flipped afterwards.
+     */
+    void readBlock(int block, ByteBuffer dst) throws IOException {
+        if (segments == null) {
+            long position = eventsOffset + blockOffsets[block];
+            int start = dst.position();
+            while (dst.hasRemaining()) {
+                if (channel.read(dst, position + dst.position() - start) < 0)
+                    throw new IOException("Unexpected end of trace file");
+            }
+        } else {
+            int segment = blockSegments[block];
+            ByteBuffer view = segments[segment].duplicate();
+            int offset = (int) (blockOffsets[block] - segmentOffsets[segment]);
+            view.position(offset);
+            view.limit(offset + blockLengths[block]);
+            dst.put(view);
+        }
+        dst.flip();
+    }
+
+}
@@ -0,0 +1,50 @@
+/*
+ * RestoredTraces.java
+ *
+ * Copyright (C) 2011-2012, Artur Jonkisz, <travis.source@gmail.com>
+ *
+ * This file is part of TraVis.
+ * See https://github.com/ajonkisz/TraVis for more info.
+ *
+ * TraVis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TraVis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with TraVis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package travis.model.script;
+
+/**
+ * Traces leading to a position of a trace file: calls still open before
+ * them and the traces themselves.
+ */
+public class RestoredTraces {
+
+    private final TraceBuffer openCalls;
+    private final TraceBuffer traces;
+
+    RestoredTraces(TraceBuffer openCalls, TraceBuffer traces) {
+        this.openCalls = openCalls;
+        this.traces = traces;
+    }
+
+    /**
+     * @return call traces of calls opened before the restored traces, thread
+     *         by thread starting from the outermost call
+     */
+    public TraceBuffer getOpenCalls() {
+        return openCalls;
+    }
+
+    public TraceBuffer getTraces() {
+        return traces;
+    }
+
+}
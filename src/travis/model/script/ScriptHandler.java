@@ -24,17 +24,18 @@ package travis.model.script;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.LineNumberReader;
-import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
 import java.nio.channels.FileChannel;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Observable;
+import java.util.concurrent.locks.LockSupport;
 import javax.swing.tree.TreePath;
 
 import travis.model.project.structure.StructMethod;
@@ -43,17 +44,42 @@ public class ScriptHandler extends Observable {
 
     private static final SimpleDateFormat DATE_FORMATTER = new SimpleDateFormat(
             "yyyy-MM-dd'T'HHmmssSSS");
-    private static final ScriptHandler INSTANCE = new ScriptHandler();
-    private static final int FLUSH_COUNT = 2000;
     public static final String TREEPATHS_TERMINATING_SEQUENCE = "treePathsEnd";
     public static final String HEADER_TERMINATING_SEQUENCE = "headerEnd";
 
+    // 2^18 queued events
+    private static final int QUEUE_SIZE_POWER = 18;
+    private static final int BATCH_SIZE = 2048;
+
+    private static final ScriptHandler INSTANCE = new ScriptHandler();
+
+    private final Object fileLock;
+    private final TraceQueue queue;
+    private final int[] methods;
+    private final long[] times;
+    private final long[] threads;
+    private final TraceBuffer batch;
+    private final Thread writer;
+    private volatile boolean writerWaiting;
+
     private File outputFile;
-    private FileWriter fw;
-    private int counter;
+    private RandomAccessFile output;
+    private TraceBlockWriter blocks;
+    private List<TraceMethod> traceMethods;
+    private volatile int checkpointInterval = TraceFormat.CHECKPOINT_INTERVAL;
 
     private ScriptHandler() {
+        fileLock = new Object();
+        queue = new TraceQueue(QUEUE_SIZE_POWER);
+        methods = new int[BATCH_SIZE];
+        times = new long[BATCH_SIZE];
+        threads = new long[BATCH_SIZE];
+        batch = new TraceBuffer(BATCH_SIZE);
+        traceMethods = Collections.emptyList();
         configureNewFileWriter();
+
+        writer = new WriterThread();
+        writer.start();
     }
 
     public static ScriptHandler getInstance() {
@@ -63,9 +89,13 @@ public class ScriptHandler extends Observable {
     private void configureNewFileWriter() {
         try {
             close();
-            outputFile = new File(DATE_FORMATTER.format(new Date()) + ".vis");
+            // Holds only event blocks, the rest is added when saving
+            outputFile = new File(DATE_FORMATTER.format(new Date())
+                    + ".events");
             outputFile.deleteOnExit();
-            fw = new FileWriter(outputFile);
+            output = new RandomAccessFile(outputFile, "rw");
+            blocks = new TraceBlockWriter(output.getChannel());
+            blocks.setCheckpointInterval(checkpointInterval);
         } catch (IOException e) {
             e.printStackTrace();
             System.exit(1);
@@ -74,8 +104,10 @@ public class ScriptHandler extends Observable {
 
     private void close() {
         try {
-            if (fw != null)
-                fw.close();
+            if (blocks != null)
+                blocks.end();
+            if (output != null)
+                output.close();
             if (outputFile != null)
                 outputFile.delete();
         } catch (IOException e) {
@@ -85,131 +117,170 @@ public class ScriptHandler extends Observable {
 
     public void saveToFile(File dest, TreePath[] treePathToWrite)
             throws IOException {
-        synchronized (outputFile) {
-            FileOutputStream fis = new FileOutputStream(dest);
-            ObjectOutputStream oos = new ObjectOutputStream(fis);
-            if (treePathToWrite != null)
-                oos.writeObject(treePathToWrite);
-            oos.writeUTF(TREEPATHS_TERMINATING_SEQUENCE + '\n');
-            oos.close();
-            fis.close();
-
+        synchronized (fileLock) {
             flush();
-            copyFile(outputFile, dest);
+            blocks.flush();
+
+            TraceFileWriter writer = new TraceFileWriter(dest,
+                    treePathToWrite, traceMethods);
+            try {
+                writer.appendBlocks(output.getChannel(), blocks);
+            } finally {
+                writer.close();
+            }
         }
     }
 
-    public void writeScriptLine(String methodId, boolean returnCall,
-                                String nanoTime, String threadId) {
+    /**
+     * Saves traces from the given ordinal range of a trace file to a new
+     * file.
+     */
+    public static void saveSubtrace(File dest, TreePath[] treePathToWrite,
+                                    TraceFile source, long from, long to)
+            throws IOException {
+        TraceFileWriter writer = new TraceFileWriter(dest, treePathToWrite,
+                source.getMethods());
+        writer.setCheckpointInterval(INSTANCE.checkpointInterval);
         try {
-            FileWriter oldFw = fw;
-            TraceInfo trace;
-            synchronized (outputFile) {
-                // Check if created a new FileOutputStream if so do not write
-                // anything to a newly created file - discard input.
-                if (oldFw != fw)
-                    return;
-
-                if (returnCall)
-                    oldFw.write('-');
-                oldFw.write(methodId);
-                oldFw.write(' ');
-                oldFw.write(nanoTime);
-                oldFw.write(' ');
-                oldFw.write(threadId);
-                oldFw.write('\n');
-                if (++counter % FLUSH_COUNT == 0) {
-                    flush();
-                }
-                trace = new TraceInfo(Integer.parseInt(methodId), returnCall,
-                        Long.parseLong(nanoTime), Long.parseLong(threadId));
-            }
-            sendTraceInfo(trace);
-        } catch (IOException e) {
-            // This should never happen!
-            e.printStackTrace();
+            writer.addRange(source, from, to);
+        } finally {
+            writer.close();
         }
     }
 
-    public void sendTraceInfo(TraceInfo trace) {
-        if (trace != null) {
-            setChanged();
-            notifyObservers(trace);
+    /**
+     * @param interval minimal number of traces between call stack
+     *                 checkpoints of saved files, 0 for none
+     */
+    public void setCheckpointInterval(int interval) {
+        synchronized (fileLock) {
+            checkpointInterval = interval;
+            blocks.setCheckpointInterval(interval);
         }
     }
 
+    /**
+     * Queues a trace to be written and published on the TraceBus by the
+     * writer thread. Never blocks, the trace is dropped if the queue is full.
+     */
+    public void writeTrace(int methodId, boolean returnCall, long nanoTime,
+                           long threadId) {
+        queue.offer(methodId, returnCall, nanoTime, threadId);
+        if (writerWaiting)
+            LockSupport.unpark(writer);
+    }
+
+    /**
+     * @return number of traces waiting to be written
+     */
+    public int getQueuedTracesNo() {
+        return queue.getDepth();
+    }
+
+    /**
+     * @return number of traces dropped because the queue was full
+     */
+    public long getDroppedTracesNo() {
+        return queue.getDropped();
+    }
+
     public void sendEmptyCall() {
         setChanged();
         notifyObservers();
     }
 
+    /**
+     * Writes out a batch of queued traces and publishes them.
+     *
+     * @return number of traces written
+     */
+    private int writeQueued() throws IOException {
+        int count;
+        synchronized (fileLock) {
+            count = queue.drainTo(methods, times, threads, BATCH_SIZE);
+            if (count == 0)
+                return 0;
+
+            batch.clear();
+            for (int i = 0; i < count; i++) {
+                int method = methods[i];
+                boolean returnCall = method < 0;
+                if (returnCall)
+                    method = ~method;
+                blocks.add(method, returnCall, times[i], threads[i]);
+                batch.add(method, returnCall, times[i], threads[i]);
+            }
+
+            TraceBus.getInstance().publish(batch);
+        }
+        return count;
+    }
+
     private void flush() {
-        counter = 0;
         try {
-            synchronized (outputFile) {
-                fw.flush();
+            synchronized (fileLock) {
+                while (queue.getDepth() > 0 && writeQueued() > 0)
+                    ;
             }
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * Parks the writer thread until a trace is queued. The queue is checked
+     * again after the writer is marked as waiting, so a trace queued in
+     * between is either seen here or unparks the writer.
+     */
+    private void waitForTraces() {
+        writerWaiting = true;
+        if (queue.getDepth() == 0)
+            LockSupport.park(this);
+        writerWaiting = false;
+    }
+
+    /**
+     * Drops traces still waiting in the queue.
+     */
+    private void discardQueued() {
+        while (queue.drainTo(methods, times, threads, BATCH_SIZE) > 0)
+            ;
+    }
+
     public void writeScriptHeader(ScriptGenerator scriptGen) {
-        try {
-            synchronized (outputFile) {
-                configureNewFileWriter();
-                Map<StructMethod, Integer> map = scriptGen.getMethods();
-                for (Entry<StructMethod, Integer> e : map.entrySet()) {
-                    StructMethod m = e.getKey();
-                    fw.write(String.format("%d %s %d %s %s %d%n", e.getValue(),
-                            m.getParentName(), m.getParent().getAccessFlag(),
-                            m.getName(), m.getDescriptor(), m.getAccessFlag()));
-                }
-                fw.write(HEADER_TERMINATING_SEQUENCE + "\n");
-                flush();
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
+        synchronized (fileLock) {
+            // Traces of the previous run are not written to the new file
+            discardQueued();
+            configureNewFileWriter();
+            Map<StructMethod, Integer> map = scriptGen.getMethods();
+            List<TraceMethod> list = new ArrayList<TraceMethod>(map.size());
+            for (Entry<StructMethod, Integer> e : map.entrySet())
+                list.add(new TraceMethod(e.getValue(), e.getKey()));
+            traceMethods = list;
         }
     }
 
-    public static void copyLines(File sourceFile, File destFile, long from,
-                                 long to) throws IOException {
-        if (from >= to)
-            return;
-        if (!destFile.exists()) {
-            destFile.createNewFile();
+    /**
+     * Writes queued traces to the output file in batches so that threads
+     * producing traces never wait for the disk.
+     */
+    private class WriterThread extends Thread {
+
+        WriterThread() {
+            super("TraVis Trace Writer");
+            setDaemon(true);
         }
 
-        LineNumberReader source = null;
-        FileOutputStream destination = null;
-        try {
-            source = new LineNumberReader(new FileReader(sourceFile));
-            destination = new FileOutputStream(destFile, true);
-
-            // Skip not copied lines
-            while (source.readLine() != null
-                    && source.getLineNumber() < from)
-                ;
-
-            int flusher = 0;
-            String line;
-            while ((line = source.readLine()) != null
-                    && source.getLineNumber() <= to) {
-                destination.write(line.getBytes());
-                destination.write('\n');
-                flusher++;
-                if (flusher >= 5000) {
-                    destination.flush();
-                    flusher = 0;
+        @Override
+        public void run() {
+            while (!isInterrupted()) {
+                try {
+                    if (writeQueued() == 0)
+                        waitForTraces();
+                } catch (IOException e) {
+                    e.printStackTrace();
                 }
             }
-            destination.flush();
-        } finally {
-            if (source != null)
-                source.close();
-            if (destination != null)
-                destination.close();
         }
     }
 
@@ -22,29 +22,39 @@
 package travis.model.script;
 
 import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
 import java.util.Collection;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import travis.view.console.Printer;
 
+/**
+ * Standard output of TraVis, everything printed is passed on to the listening
+ * printers as well. Traces of a traced program are decoded from its output by
+ * WireDecoder before the rest of it is printed here. Each writing thread has
+ * its own text decoder, so characters split between writes of one thread
+ * reach the printers whole.
+ */
 public class ScriptPrinter extends PrintStream {
 
-    private static final Pattern LINE_PATTERN = Pattern.compile("((?!"
-            + ScriptGenerator.SEQUENCE + ").*)?" + ScriptGenerator.SEQUENCE
-            + "([-])?(\\d+)[ ](\\d+)[ ](\\d+)$");
-    private static final Matcher MATCHER = LINE_PATTERN.matcher("");
-
     private static final ScriptPrinter INSTANCE = new ScriptPrinter();
 
-    private final ScriptHandler handler;
     private final Collection<Printer> listeningPrinters;
+    private final ThreadLocal<TextDecoder> decoders;
 
     private ScriptPrinter() {
         super(System.out, true);
-        handler = ScriptHandler.getInstance();
         listeningPrinters = new ConcurrentLinkedQueue<Printer>();
+        decoders = new ThreadLocal<TextDecoder>() {
+            @Override
+            protected TextDecoder initialValue() {
+                return new TextDecoder();
+            }
+        };
     }
 
     public void addListeningPrinter(Printer printer) {
@@ -61,50 +71,21 @@ public class ScriptPrinter extends PrintStream {
 
     @Override
     public void write(byte[] buf, int off, int len) {
-        String s = new String(buf, off, len);
-        // If didn't find script string then print to console as normal
-        if (!findScript(s)) {
-            printToOld(s);
-        }
-    }
-
-    private boolean findScript(String s) {
-        String methodId;
-        boolean returnCall;
-        String nanoTime;
-        String threadId;
-        String consumedString;
-
-        synchronized (MATCHER) {
-            MATCHER.reset(s);
-            if (MATCHER.find()) {
-                consumedString = MATCHER.group(1);
-
-                returnCall = MATCHER.group(2) != null;
-                methodId = MATCHER.group(3);
-                nanoTime = MATCHER.group(4);
-                threadId = MATCHER.group(5);
-            } else {
-                return false;
-            }
+        if (len == 0)
+            return;
+        super.write(buf, off, len);
+        if (!listeningPrinters.isEmpty()) {
+            String s = decoders.get().decode(buf, off, len);
+            if (s.length() > 0)
+                notifyPrinters(s);
         }
-        handler.writeScriptLine(methodId, returnCall, nanoTime, threadId);
-
-        if (consumedString != null)
-            printToOld(consumedString);
-
-        return true;
     }
 
-    private void printToOld(String string) {
-        byte[] bytes = string.getBytes();
-        super.write(bytes, 0, bytes.length);
-        if (bytes[bytes.length - 1] != '\n') {
-            super.write('\n');
-            notifyPrinters(string + '\n');
-        } else {
-            notifyPrinters(string);
-        }
+    @Override
+    public void write(int b) {
+        TextDecoder decoder = decoders.get();
+        decoder.single[0] = (byte) b;
+        write(decoder.single, 0, 1);
     }
 
     private void notifyPrinters(String s) {
@@ -112,4 +93,45 @@ public class ScriptPrinter extends PrintStream {
             printer.write(s);
         }
     }
+
+    /**
+     * Decodes text in the default charset, bytes of a character not complete
+     * at the end of a write are kept until the next one.
+     */
+    private static class TextDecoder {
+
+        private final byte[] single = new byte[1];
+        private final CharsetDecoder decoder;
+        private byte[] rest = new byte[8];
+        private int restLength;
+
+        TextDecoder() {
+            decoder = Charset.defaultCharset().newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+
+        String decode(byte[] buf, int off, int len) {
+            if (restLength > 0) {
+                byte[] joined = new byte[restLength + len];
+                System.arraycopy(rest, 0, joined, 0, restLength);
+                System.arraycopy(buf, off, joined, restLength, len);
+                buf = joined;
+                off = 0;
+                len = joined.length;
+            }
+            ByteBuffer in = ByteBuffer.wrap(buf, off, len);
+            CharBuffer out = CharBuffer.allocate((int) Math.ceil(len
+                    * (double) decoder.maxCharsPerByte()));
+            decoder.decode(in, out, false);
+            restLength = in.remaining();
+            if (restLength > rest.length)
+                rest = new byte[restLength];
+            in.get(rest, 0, restLength);
+            out.flip();
+            return out.toString();
+        }
+
+    }
+
 }
@@ -0,0 +1,205 @@
+/*
+ * ThreadIndex.java
+ *
+ * Copyright (C) 2011-2012, Artur Jonkisz, <travis.source@gmail.com>
+ *
+ * This file is part of TraVis.
+ * See https://github.com/ajonkisz/TraVis for more info.
+ *
+ * TraVis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TraVis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with TraVis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package travis.model.script;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Blocks holding events of every thread of a trace, so that events of some
+ * threads can be read without decoding blocks of the other ones.
+ */
+public class ThreadIndex {
+
+    // Sorted
+    private final long[] threadIds;
+    private final long[] eventCounts;
+    // Sorted block indexes of every thread
+    private final int[][] blocks;
+
+    private ThreadIndex(long[] threadIds, long[] eventCounts, int[][] blocks) {
+        this.threadIds = threadIds;
+        this.eventCounts = eventCounts;
+        this.blocks = blocks;
+    }
+
+    /**
+     * @return ids of all threads in ascending order
+     */
+    public long[] getThreadIds() {
+        return threadIds.clone();
+    }
+
+    public int getThreadCount() {
+        return threadIds.length;
+    }
+
+    /**
+     * @return number of events of the thread
+     */
+    public long getEventCount(long threadId) {
+        int i = Arrays.binarySearch(threadIds, threadId);
+        return i < 0 ? 0 : eventCounts[i];
+    }
+
+    /**
+     * @return indexes of blocks holding events of any of the threads in
+     *         ascending order
+     */
+    public int[] getBlocks(long[] threads) {
+        int length = 0;
+        for (long threadId : threads) {
+            int i = Arrays.binarySearch(threadIds, threadId);
+            if (i >= 0)
+                length += blocks[i].length;
+        }
+        int[] result = new int[length];
+        int pos = 0;
+        for (long threadId : threads) {
+            int i = Arrays.binarySearch(threadIds, threadId);
+            if (i >= 0) {
+                System.arraycopy(blocks[i], 0, result, pos, blocks[i].length);
+                pos += blocks[i].length;
+            }
+        }
+        Arrays.sort(result);
+        int size = 0;
+        for (int i = 0; i < result.length; i++) {
+            if (size == 0 || result[size - 1] != result[i])
+                result[size++] = result[i];
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    static ThreadIndex read(ByteBuffer buf) {
+        int count = buf.getInt();
+        long[] threadIds = new long[count];
+        long[] eventCounts = new long[count];
+        int[][] blocks = new int[count][];
+        for (int i = 0; i < count; i++) {
+            threadIds[i] = buf.getLong();
+            eventCounts[i] = buf.getLong();
+            blocks[i] = new int[buf.getInt()];
+            for (int j = 0; j < blocks[i].length; j++)
+                blocks[i][j] = buf.getInt();
+        }
+        return new ThreadIndex(threadIds, eventCounts, blocks);
+    }
+
+    void write(DataOutput out) throws IOException {
+        out.writeInt(threadIds.length);
+        for (int i = 0; i < threadIds.length; i++) {
+            out.writeLong(threadIds[i]);
+            out.writeLong(eventCounts[i]);
+            out.writeInt(blocks[i].length);
+            for (int block : blocks[i])
+                out.writeInt(block);
+        }
+    }
+
+    /**
+     * Collects threads of blocks, which may be added in any order and from
+     * many threads.
+     */
+    static class Builder {
+
+        private final Map<Long, Entry> entries;
+
+        Builder() {
+            entries = new HashMap<Long, Entry>();
+        }
+
+        /**
+         * Adds threads of the first count events of a block.
+         */
+        void addBlock(int block, long[] threads, int count) {
+            long[] sorted = Arrays.copyOf(threads, count);
+            Arrays.sort(sorted);
+            synchronized (this) {
+                int i = 0;
+                while (i < count) {
+                    int j = i + 1;
+                    while (j < count && sorted[j] == sorted[i])
+                        j++;
+                    Entry entry = entries.get(sorted[i]);
+                    if (entry == null) {
+                        entry = new Entry();
+                        entries.put(sorted[i], entry);
+                    }
+                    entry.add(block, j - i);
+                    i = j;
+                }
+            }
+        }
+
+        synchronized Builder copy() {
+            Builder copy = new Builder();
+            for (Map.Entry<Long, Entry> e : entries.entrySet())
+                copy.entries.put(e.getKey(), e.getValue().copy());
+            return copy;
+        }
+
+        synchronized ThreadIndex build() {
+            long[] threadIds = new long[entries.size()];
+            int i = 0;
+            for (Long threadId : entries.keySet())
+                threadIds[i++] = threadId;
+            Arrays.sort(threadIds);
+
+            long[] eventCounts = new long[threadIds.length];
+            int[][] blocks = new int[threadIds.length][];
+            for (i = 0; i < threadIds.length; i++) {
+                Entry entry = entries.get(threadIds[i]);
+                eventCounts[i] = entry.events;
+                blocks[i] = Arrays.copyOf(entry.blocks, entry.size);
+                Arrays.sort(blocks[i]);
+            }
+            return new ThreadIndex(threadIds, eventCounts, blocks);
+        }
+    }
+
+    private static class Entry {
+        private long events;
+        private int[] blocks = new int[8];
+        private int size;
+
+        void add(int block, int count) {
+            if (size == blocks.length)
+                blocks = Arrays.copyOf(blocks, size * 2);
+            blocks[size++] = block;
+            events += count;
+        }
+
+        Entry copy() {
+            Entry copy = new Entry();
+            copy.events = events;
+            copy.blocks = Arrays.copyOf(blocks, blocks.length);
+            copy.size = size;
+            return copy;
+        }
+    }
+
+}
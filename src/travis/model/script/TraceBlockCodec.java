@@ -0,0 +1,267 @@
+/*
+ * TraceBlockCodec.java
+ *
+ * Copyright (C) 2011-2012, Artur Jonkisz, <travis.source@gmail.com>
+ *
+ * This file is part of TraVis.
+ * See https://github.com/ajonkisz/TraVis for more info.
+ *
+ * TraVis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TraVis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with TraVis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package travis.model.script;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Encodes blocks of events for {@link TraceFormat#VERSION} 2 files. Events of
+ * a block are stored column by column and then deflated:
+ * <pre>
+ * thread count | thread count * varlong thread id
+ * count * varint (methodId &lt;&lt; 1 | return flag)
+ * zigzag varlong first call time | (count - 1) * zigzag varlong time delta
+ * count * varint index of the thread id
+ * </pre>
+ * A stored block is the event count, the length of the column data and the
+ * deflated column data, so every block can be decoded on its own. Instances
+ * are not thread safe.
+ */
+class TraceBlockCodec {
+
+    // Longest encoding of an event and of a thread id
+    private static final int MAX_EVENT = 5 + 10 + 5;
+    private static final int MAX_THREAD = 10;
+    private static final int THREADS_TABLE = Integer.highestOneBit(
+            TraceFormat.BLOCK_EVENTS) * 4;
+    private static final String CORRUPT_BLOCK = "Corrupt trace block";
+
+    private final byte[] raw;
+    private byte[] encoded;
+    private ByteBuffer input;
+    private int position;
+
+    private Deflater deflater;
+    private Inflater inflater;
+
+    // Open addressing table of thread ids seen in the current block
+    private final long[] threadKeys;
+    private final int[] threadIndexes;
+    private final int[] threadGenerations;
+    private int generation;
+    private final long[] dictionary;
+    private final int[] threadRefs;
+
+    TraceBlockCodec() {
+        raw = new byte[5 + TraceFormat.BLOCK_EVENTS
+                * (MAX_EVENT + MAX_THREAD)];
+        encoded = new byte[0];
+        threadKeys = new long[THREADS_TABLE];
+        threadIndexes = new int[THREADS_TABLE];
+        threadGenerations = new int[THREADS_TABLE];
+        dictionary = new long[TraceFormat.BLOCK_EVENTS];
+        threadRefs = new int[TraceFormat.BLOCK_EVENTS];
+    }
+
+    /**
+     * Encodes events, return calls given as ~methodId.
+     *
+     * @return length of the stored block, available from getEncoded()
+     */
+    int encode(int[] methods, long[] times, long[] threads, int count) {
+        generation++;
+        int threadCount = 0;
+        for (int i = 0; i < count; i++) {
+            int slot = (int) (threads[i] ^ (threads[i] >>> 32)) * 0x9E3779B9
+                    >>> 1 & (THREADS_TABLE - 1);
+            while (threadGenerations[slot] == generation
+                    && threadKeys[slot] != threads[i])
+                slot = (slot + 1) & (THREADS_TABLE - 1);
+            if (threadGenerations[slot] != generation) {
+                threadGenerations[slot] = generation;
+                threadKeys[slot] = threads[i];
+                threadIndexes[slot] = threadCount;
+                dictionary[threadCount++] = threads[i];
+            }
+            threadRefs[i] = threadIndexes[slot];
+        }
+
+        position = 0;
+        writeVarlong(threadCount);
+        for (int i = 0; i < threadCount; i++)
+            writeVarlong(dictionary[i]);
+        for (int i = 0; i < count; i++) {
+            int method = methods[i];
+            writeVarlong(method < 0 ? ((long) ~method << 1) | 1
+                    : (long) method << 1);
+        }
+        long previous = 0;
+        for (int i = 0; i < count; i++) {
+            writeVarlong(zigzag(times[i] - previous));
+            previous = times[i];
+        }
+        for (int i = 0; i < count; i++)
+            writeVarlong(threadRefs[i]);
+        int rawLength = position;
+
+        if (deflater == null)
+            deflater = new Deflater(Deflater.BEST_SPEED);
+        deflater.reset();
+        deflater.setInput(raw, 0, rawLength);
+        deflater.finish();
+        int maxLength = 8 + rawLength + rawLength / 100 + 64;
+        if (encoded.length < maxLength)
+            encoded = new byte[maxLength];
+        putInt(encoded, 0, count);
+        putInt(encoded, 4, rawLength);
+        int length = 8;
+        while (!deflater.finished())
+            length += deflater.deflate(encoded, length, encoded.length - length);
+        return length;
+    }
+
+    byte[] getEncoded() {
+        return encoded;
+    }
+
+    /**
+     * @return heap buffer to read a stored block of the given length into,
+     *         reused by later calls
+     */
+    ByteBuffer getInputBuffer(int length) {
+        if (input == null || input.capacity() < length)
+            input = ByteBuffer.allocate(Math.max(length, raw.length));
+        input.clear();
+        input.limit(length);
+        return input;
+    }
+
+    /**
+     * Decodes a stored block into the given arrays, return calls are stored
+     * as ~methodId.
+     *
+     * @return number of events in the block
+     */
+    int decode(byte[] block, int off, int len, int[] methods, long[] times,
+               long[] threads) throws IOException {
+        if (len < 8)
+            throw new IOException(CORRUPT_BLOCK);
+        int count = getInt(block, off);
+        int rawLength = getInt(block, off + 4);
+        if (count < 0 || count > methods.length || count > times.length
+                || count > threads.length || rawLength < 0
+                || rawLength > raw.length)
+            throw new IOException(CORRUPT_BLOCK);
+        if (inflater == null)
+            inflater = new Inflater();
+        inflater.reset();
+        inflater.setInput(block, off + 8, len - 8);
+        try {
+            int n = 0;
+            while (n < rawLength) {
+                int inflated = inflater.inflate(raw, n, rawLength - n);
+                if (inflated == 0 && (inflater.finished()
+                        || inflater.needsInput()))
+                    throw new IOException("Truncated trace block");
+                n += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        }
+
+        position = 0;
+        long threadCount = readVarlong(rawLength);
+        if (threadCount < 0 || threadCount > dictionary.length)
+            throw new IOException(CORRUPT_BLOCK);
+        for (int i = 0; i < threadCount; i++)
+            dictionary[i] = readVarlong(rawLength);
+        for (int i = 0; i < count; i++) {
+            long code = readVarlong(rawLength);
+            int method = (int) (code >>> 1);
+            methods[i] = (code & 1) != 0 ? ~method : method;
+        }
+        long time = 0;
+        for (int i = 0; i < count; i++) {
+            time += unzigzag(readVarlong(rawLength));
+            times[i] = time;
+        }
+        for (int i = 0; i < count; i++) {
+            long thread = readVarlong(rawLength);
+            if (thread < 0 || thread >= threadCount)
+                throw new IOException(CORRUPT_BLOCK);
+            threads[i] = dictionary[(int) thread];
+        }
+        return count;
+    }
+
+    /**
+     * Releases the native resources of the codec.
+     */
+    void end() {
+        if (deflater != null)
+            deflater.end();
+        if (inflater != null)
+            inflater.end();
+        deflater = null;
+        inflater = null;
+    }
+
+    private void writeVarlong(long value) {
+        while ((value & ~0x7FL) != 0) {
+            raw[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        raw[position++] = (byte) value;
+    }
+
+    /**
+     * Reads a varlong ending before the given end of the column data.
+     */
+    private long readVarlong(int end) throws IOException {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            if (position >= end || shift > 63)
+                throw new IOException(CORRUPT_BLOCK);
+            b = raw[position++];
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void putInt(byte[] buf, int off, int value) {
+        buf[off] = (byte) (value >>> 24);
+        buf[off + 1] = (byte) (value >>> 16);
+        buf[off + 2] = (byte) (value >>> 8);
+        buf[off + 3] = (byte) value;
+    }
+
+    private static int getInt(byte[] buf, int off) {
+        return ((buf[off] & 0xFF) << 24) | ((buf[off + 1] & 0xFF) << 16)
+                | ((buf[off + 2] & 0xFF) << 8) | (buf[off + 3] & 0xFF);
+    }
+
+}
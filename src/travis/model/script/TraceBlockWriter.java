@@ -0,0 +1,280 @@
+/*
+ * TraceBlockWriter.java
+ *
+ * Copyright (C) 2011-2012, Artur Jonkisz, <travis.source@gmail.com>
+ *
+ * This file is part of TraVis.
+ * See https://github.com/ajonkisz/TraVis for more info.
+ *
+ * TraVis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TraVis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with TraVis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package travis.model.script;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Groups events into blocks of {@link TraceFormat#BLOCK_EVENTS} and writes
+ * them to a channel, keeping the block index in memory. Block offsets are
+ * relative to the channel position at creation.
+ */
+class TraceBlockWriter {
+
+    private final FileChannel channel;
+    private final int[] methods;
+    private final long[] times;
+    private final long[] threads;
+    private int size;
+
+    private final TraceBlockCodec codec;
+    private DepthPyramid.Builder depths;
+    private CallStacks stacks;
+    private TraceCheckpoints checkpoints;
+    private ThreadIndex.Builder threadIndex;
+    private int checkpointInterval;
+    private long lastCheckpoint;
+    private ByteBuffer payload;
+
+    private long eventCount;
+    private long length;
+    private long[] blockOrdinals;
+    private long[] blockOffsets;
+    private int[] blockLengths;
+    private int blockCount;
+
+    TraceBlockWriter(FileChannel channel) {
+        this.channel = channel;
+        methods = new int[TraceFormat.BLOCK_EVENTS];
+        times = new long[TraceFormat.BLOCK_EVENTS];
+        threads = new long[TraceFormat.BLOCK_EVENTS];
+        codec = new TraceBlockCodec();
+        depths = new DepthPyramid.Builder();
+        stacks = new CallStacks();
+        checkpoints = new TraceCheckpoints();
+        threadIndex = new ThreadIndex.Builder();
+        checkpointInterval = TraceFormat.CHECKPOINT_INTERVAL;
+        payload = ByteBuffer.allocateDirect(TraceFormat.BLOCK_EVENTS
+                * TraceFormat.EVENT_SIZE);
+        blockOrdinals = new long[64];
+        blockOffsets = new long[64];
+        blockLengths = new int[64];
+    }
+
+    void add(int methodId, boolean returnCall, long time, long threadId)
+            throws IOException {
+        methods[size] = returnCall ? ~methodId : methodId;
+        times[size] = time;
+        threads[size] = threadId;
+        if (depths != null)
+            depths.add(returnCall);
+        if (stacks != null)
+            stacks.add(methodId, returnCall, time, threadId);
+        if (++size == TraceFormat.BLOCK_EVENTS)
+            flush();
+    }
+
+    /**
+     * Writes out the events added so far as a block, the next event starts a
+     * new block.
+     */
+    void flush() throws IOException {
+        if (size == 0)
+            return;
+
+        int blockLength = codec.encode(methods, times, threads, size);
+        if (payload.capacity() < blockLength)
+            payload = ByteBuffer.allocateDirect(blockLength);
+        payload.clear();
+        payload.put(codec.getEncoded(), 0, blockLength);
+        payload.flip();
+        while (payload.hasRemaining())
+            channel.write(payload);
+        addIndexEntry(eventCount, length, blockLength);
+        if (threadIndex != null)
+            threadIndex.addBlock(blockCount - 1, threads, size);
+        eventCount += size;
+        length += blockLength;
+        size = 0;
+
+        if (stacks != null && checkpointInterval > 0
+                && eventCount - lastCheckpoint >= checkpointInterval) {
+            checkpoints.add(eventCount, stacks.copy());
+            lastCheckpoint = eventCount;
+        }
+    }
+
+    /**
+     * @param interval minimal number of events between checkpoints, 0 stops
+     *                 adding checkpoints
+     */
+    void setCheckpointInterval(int interval) {
+        checkpointInterval = interval;
+    }
+
+    private void addIndexEntry(long ordinal, long offset, int blockLength) {
+        if (blockCount == blockOrdinals.length) {
+            int newLength = blockCount * 2;
+            long[] ordinals = new long[newLength];
+            long[] offsets = new long[newLength];
+            int[] lengths = new int[newLength];
+            System.arraycopy(blockOrdinals, 0, ordinals, 0, blockCount);
+            System.arraycopy(blockOffsets, 0, offsets, 0, blockCount);
+            System.arraycopy(blockLengths, 0, lengths, 0, blockCount);
+            blockOrdinals = ordinals;
+            blockOffsets = offsets;
+            blockLengths = lengths;
+        }
+        blockOrdinals[blockCount] = ordinal;
+        blockOffsets[blockCount] = offset;
+        blockLengths[blockCount] = blockLength;
+        blockCount++;
+    }
+
+    /**
+     * Copies all blocks written by another writer. Events added to this
+     * writer must have been flushed.
+     *
+     * @param source channel the other writer wrote its blocks to, starting
+     *               at position 0
+     */
+    void appendBlocks(FileChannel source, TraceBlockWriter blocks)
+            throws IOException {
+        transfer(source, 0, blocks.length);
+        for (int i = 0; i < blocks.blockCount; i++) {
+            addIndexEntry(eventCount + blocks.blockOrdinals[i], length
+                    + blocks.blockOffsets[i], blocks.blockLengths[i]);
+        }
+        // Depths, stacks and threads only continue from a writer that is still
+        // empty
+        if (depths != null && depths.getEventCount() == 0
+                && blocks.depths != null)
+            depths = blocks.depths.copy();
+        else
+            depths = null;
+        if (threadIndex != null && eventCount == 0
+                && blocks.threadIndex != null)
+            threadIndex = blocks.threadIndex.copy();
+        else
+            threadIndex = null;
+        if (stacks != null && eventCount == 0 && blocks.stacks != null) {
+            stacks = blocks.stacks.copy();
+            checkpoints = blocks.checkpoints.copy();
+            lastCheckpoint = blocks.lastCheckpoint;
+        } else {
+            stacks = null;
+            checkpoints = null;
+        }
+        eventCount += blocks.eventCount;
+        length += blocks.length;
+    }
+
+    /**
+     * Copies a range of blocks of a trace file without decoding them. Events
+     * added to this writer must have been flushed and the blocks must be
+     * stored in the current format version.
+     *
+     * @param from index of the first block to copy
+     * @param to   index after the last block to copy
+     */
+    void transferBlocks(TraceFile source, int from, int to)
+            throws IOException {
+        MappedTraceReader index = source.getBlocks();
+        long firstOrdinal = index.getBlockOrdinal(from);
+        long firstOffset = index.getBlockOffset(from);
+        long endOrdinal = to < index.getBlockCount() ? index
+                .getBlockOrdinal(to) : index.getEventCount();
+        long endOffset = index.getBlockOffset(to - 1)
+                + index.getBlockLength(to - 1);
+
+        transfer(source.getChannel(), index.getEventsOffset() + firstOffset,
+                endOffset - firstOffset);
+        for (int i = from; i < to; i++) {
+            addIndexEntry(eventCount + index.getBlockOrdinal(i) - firstOrdinal,
+                    length + index.getBlockOffset(i) - firstOffset,
+                    index.getBlockLength(i));
+        }
+        // Copied events are not seen, depths, stacks and threads are unknown
+        depths = null;
+        threadIndex = null;
+        stacks = null;
+        checkpoints = null;
+        eventCount += endOrdinal - firstOrdinal;
+        length += endOffset - firstOffset;
+    }
+
+    private void transfer(FileChannel source, long position, long count)
+            throws IOException {
+        long end = position + count;
+        while (position < end)
+            position += source.transferTo(position, end - position, channel);
+    }
+
+    /**
+     * @return depths of the events written out in blocks or null if they
+     *         are not known
+     */
+    DepthPyramid getDepths() {
+        return depths == null ? null : depths.build(eventCount);
+    }
+
+    /**
+     * @return checkpoints of the events written out in blocks or null if
+     *         they are not known
+     */
+    TraceCheckpoints getCheckpoints() {
+        return checkpoints;
+    }
+
+    /**
+     * @return blocks of every thread written out or null if they are not
+     *         known
+     */
+    ThreadIndex getThreadIndex() {
+        return threadIndex == null ? null : threadIndex.build();
+    }
+
+    /**
+     * Releases the compressor, the writer cannot be used afterwards.
+     */
+    void end() {
+        codec.end();
+    }
+
+    void writeIndex(DataOutput out) throws IOException {
+        out.writeInt(blockCount);
+        out.writeLong(eventCount);
+        for (int i = 0; i < blockCount; i++) {
+            out.writeLong(blockOrdinals[i]);
+            out.writeLong(blockOffsets[i]);
+            out.writeInt(blockLengths[i]);
+        }
+    }
+
+    /**
+     * @return number of events written out in blocks
+     */
+    long getEventCount() {
+        return eventCount;
+    }
+
+    /**
+     * @return number of bytes written
+     */
+    long getLength() {
+        return length;
+    }
+
+}
@@ -0,0 +1,305 @@
+/*
+ * TraceBuffer.java
+ *
+ * Copyright (C) 2011-2012, Artur Jonkisz, <travis.source@gmail.com>
+ *
+ * This file is part of TraVis.
+ * See https://github.com/ajonkisz/TraVis for more info.
+ *
+ * TraVis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TraVis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with TraVis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package travis.model.script;
+
+/**
+ * Ring of traces kept in parallel primitive arrays. Each trace added gets the
+ * next ordinal; once the buffer is full the oldest traces are overwritten.
+ * Traces are read with a {@link Cursor}. Adding is synchronized, cursors do
+ * not lock: a cursor copies a trace and then checks that the start has not
+ * moved past it, as the start is moved before a trace is overwritten, and
+ * skips it otherwise. The arrays are kept together in {@link Columns}
+ * replaced at once when the buffer is resized, every read takes the arrays
+ * it uses from a single instance.
+ */
+public class TraceBuffer {
+
+    public static final byte RETURN_CALL = 1;
+
+    private static final int INITIAL_LENGTH = 1024;
+
+    private volatile Columns columns;
+    private int capacity;
+
+    private volatile long start;
+    private volatile long end;
+
+    public TraceBuffer(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        columns = new Columns(Math.min(this.capacity, INITIAL_LENGTH));
+    }
+
+    public synchronized void add(int methodId, boolean returnCall,
+                                 long callTime, long threadId) {
+        Columns c = columns;
+        if (end - start == c.length) {
+            if (c.length < capacity) {
+                c = resize(Math.min(capacity, c.length * 2));
+            } else {
+                start++;
+            }
+        }
+        int i = c.index(end);
+        c.methodIds[i] = methodId;
+        c.flags[i] = returnCall ? RETURN_CALL : 0;
+        c.callTimes[i] = callTime;
+        c.threadIds[i] = threadId;
+        end++;
+    }
+
+    /**
+     * Adds all traces available in the given buffer.
+     */
+    public synchronized void addAll(TraceBuffer traces) {
+        Cursor c = traces.cursor();
+        while (c.next()) {
+            add(c.getMethodId(), c.isReturnCall(), c.getCallTime(),
+                    c.getThreadId());
+        }
+    }
+
+    public synchronized void clear() {
+        start = end;
+    }
+
+    /**
+     * Changes the maximum number of kept traces, dropping the oldest ones if
+     * needed.
+     */
+    public synchronized void setCapacity(int capacity) {
+        capacity = Math.max(1, capacity);
+        if (capacity == this.capacity)
+            return;
+        this.capacity = capacity;
+        if (columns.length > capacity)
+            resize(capacity);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Copies the kept traces to new arrays, which are published only once
+     * filled.
+     *
+     * @return new arrays
+     */
+    private Columns resize(int length) {
+        Columns old = columns;
+        Columns c = new Columns(length);
+        long newStart = Math.max(start, end - length);
+        for (long o = newStart; o < end; o++) {
+            int from = old.index(o);
+            int to = c.index(o);
+            c.methodIds[to] = old.methodIds[from];
+            c.flags[to] = old.flags[from];
+            c.callTimes[to] = old.callTimes[from];
+            c.threadIds[to] = old.threadIds[from];
+        }
+        // Readers seeing the new arrays see the traces they dropped as gone
+        start = newStart;
+        columns = c;
+        return c;
+    }
+
+    public int getMethodId(long ordinal) {
+        Columns c = columns;
+        return c.methodIds[c.index(ordinal)];
+    }
+
+    public boolean isReturnCall(long ordinal) {
+        Columns c = columns;
+        return c.flags[c.index(ordinal)] == RETURN_CALL;
+    }
+
+    public long getCallTime(long ordinal) {
+        Columns c = columns;
+        return c.callTimes[c.index(ordinal)];
+    }
+
+    public long getThreadId(long ordinal) {
+        Columns c = columns;
+        return c.threadIds[c.index(ordinal)];
+    }
+
+    public TraceInfo getTraceInfo(long ordinal) {
+        Columns c = columns;
+        int i = c.index(ordinal);
+        return new TraceInfo(c.methodIds[i], c.flags[i] == RETURN_CALL,
+                c.callTimes[i], c.threadIds[i]);
+    }
+
+    public int size() {
+        return (int) (end - start);
+    }
+
+    public boolean isEmpty() {
+        return end == start;
+    }
+
+    /**
+     * @return ordinal of the oldest trace kept
+     */
+    public long getStart() {
+        return start;
+    }
+
+    /**
+     * @return ordinal following the newest trace
+     */
+    public long getEnd() {
+        return end;
+    }
+
+    /**
+     * @return cursor placed before the oldest trace, moved with next()
+     */
+    public Cursor cursor() {
+        Cursor c = new Cursor();
+        c.ordinal = c.first - 1;
+        return c;
+    }
+
+    /**
+     * @return cursor placed before the trace with the given ordinal or the
+     *         oldest trace kept if it is gone, moved with next()
+     */
+    public Cursor cursor(long ordinal) {
+        Cursor c = new Cursor();
+        c.ordinal = Math.max(ordinal, c.first) - 1;
+        return c;
+    }
+
+    /**
+     * @return cursor placed after the newest trace, moved with previous()
+     */
+    public Cursor reverseCursor() {
+        Cursor c = new Cursor();
+        c.ordinal = c.last;
+        return c;
+    }
+
+    /**
+     * Reads traces present in the buffer when the cursor was created.
+     */
+    public class Cursor {
+
+        private final long first;
+        private final long last;
+        private long ordinal;
+        private int methodId;
+        private byte flags;
+        private long callTime;
+        private long threadId;
+
+        private Cursor() {
+            synchronized (TraceBuffer.this) {
+                first = start;
+                last = end;
+            }
+        }
+
+        public boolean next() {
+            while (ordinal + 1 < last) {
+                // Skip traces overwritten since the cursor was created
+                ordinal = Math.max(ordinal + 1, start);
+                if (ordinal < last && read())
+                    return true;
+            }
+            return false;
+        }
+
+        public boolean previous() {
+            if (ordinal - 1 < Math.max(first, start))
+                return false;
+            ordinal--;
+            return read();
+        }
+
+        /**
+         * Copies the trace at the ordinal.
+         *
+         * @return false if it was overwritten while copied
+         */
+        private boolean read() {
+            Columns c = columns;
+            int i = c.index(ordinal);
+            methodId = c.methodIds[i];
+            flags = c.flags[i];
+            callTime = c.callTimes[i];
+            threadId = c.threadIds[i];
+            return start <= ordinal;
+        }
+
+        public boolean hasNext() {
+            return Math.max(ordinal + 1, start) < last;
+        }
+
+        public long getOrdinal() {
+            return ordinal;
+        }
+
+        public int getMethodId() {
+            return methodId;
+        }
+
+        public boolean isReturnCall() {
+            return flags == RETURN_CALL;
+        }
+
+        public long getCallTime() {
+            return callTime;
+        }
+
+        public long getThreadId() {
+            return threadId;
+        }
+
+    }
+
+    /**
+     * Arrays of the same length holding the traces.
+     */
+    private static class Columns {
+
+        final int length;
+        final int[] methodIds;
+        final byte[] flags;
+        final long[] callTimes;
+        final long[] threadIds;
+
+        Columns(int length) {
+            this.length = length;
+            methodIds = new int[length];
+            flags = new byte[length];
+            callTimes = new long[length];
+            threadIds = new long[length];
+        }
+
+        int index(long ordinal) {
+            return (int) (ordinal % length);
+        }
+
+    }
+
+}
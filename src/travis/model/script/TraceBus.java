@@ -0,0 +1,143 @@
+/*
+ * TraceBus.java
+ *
+ * Copyright (C) 2011-2012, Artur Jonkisz, <travis.source@gmail.com>
+ *
+ * This file is part of TraVis.
+ * See https://github.com/ajonkisz/TraVis for more info.
+ *
+ * TraVis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TraVis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with TraVis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package travis.model.script;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.Collection;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.swing.Timer;
+
+/**
+ * Collects traces published by the trace writer and playback and delivers
+ * them to listeners in batches, at most once per frame, on the event dispatch
+ * thread.
+ */
+public class TraceBus implements ActionListener {
+
+    private static final int FRAME_TIME = 1000 / 25;
+    // Traces kept between two deliveries, older ones are dropped
+    private static final int MAX_PENDING = 1 << 20;
+
+    private static final TraceBus INSTANCE = new TraceBus();
+
+    private final Collection<TraceListener> listeners;
+    private final Timer timer;
+    private TraceBuffer pending;
+    private TraceBuffer delivered;
+    private boolean reset;
+    private TraceBuffer resetOpenCalls;
+    private volatile long dropped;
+
+    private TraceBus() {
+        listeners = new CopyOnWriteArrayList<TraceListener>();
+        pending = new TraceBuffer(MAX_PENDING);
+        delivered = new TraceBuffer(MAX_PENDING);
+        timer = new Timer(FRAME_TIME, this);
+        timer.setRepeats(true);
+        timer.start();
+    }
+
+    public static TraceBus getInstance() {
+        return INSTANCE;
+    }
+
+    public void addTraceListener(TraceListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeTraceListener(TraceListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Queues traces for the next delivery. The buffer may be reused once this
+     * method returns.
+     */
+    public void publish(TraceBuffer traces) {
+        if (traces.isEmpty())
+            return;
+        synchronized (this) {
+            addPending(traces);
+        }
+    }
+
+    /**
+     * Drops traces not delivered yet and queues the given ones to replace
+     * all traces delivered so far.
+     *
+     * @param openCalls calls opened before the traces, passed on to the
+     *                  listeners and not modified afterwards
+     */
+    public synchronized void publishReset(TraceBuffer openCalls,
+                                          TraceBuffer traces) {
+        pending.clear();
+        addPending(traces);
+        reset = true;
+        resetOpenCalls = openCalls;
+    }
+
+    /**
+     * Adds traces to the pending ones counting those that do not fit.
+     */
+    private void addPending(TraceBuffer traces) {
+        int overflow = pending.size() + traces.size() - pending.getCapacity();
+        if (overflow > 0)
+            dropped += overflow;
+        pending.addAll(traces);
+    }
+
+    /**
+     * @return number of traces dropped because too many were published
+     *         between two deliveries
+     */
+    public long getDroppedTracesNo() {
+        return dropped;
+    }
+
+    @Override
+    public void actionPerformed(ActionEvent e) {
+        TraceBuffer batch;
+        boolean wasReset;
+        TraceBuffer openCalls;
+        synchronized (this) {
+            if (pending.isEmpty() && !reset)
+                return;
+            batch = pending;
+            pending = delivered;
+            delivered = batch;
+            wasReset = reset;
+            reset = false;
+            openCalls = resetOpenCalls;
+            resetOpenCalls = null;
+        }
+
+        for (TraceListener listener : listeners) {
+            if (wasReset)
+                listener.tracesReset(openCalls);
+            if (!batch.isEmpty())
+                listener.tracesReceived(batch);
+        }
+        batch.clear();
+    }
+
+}
@@ -0,0 +1,169 @@
+/*
+ * TraceCheckpoints.java
+ *
+ * Copyright (C) 2011-2012, Artur Jonkisz, <travis.source@gmail.com>
+ *
+ * This file is part of TraVis.
+ * See https://github.com/ajonkisz/TraVis for more info.
+ *
+ * TraVis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TraVis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with TraVis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package travis.model.script;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Open calls of all threads at regular ordinals of a trace, so that the
+ * traces leading to any position do not need to be read from the start.
+ */
+public class TraceCheckpoints {
+
+    private long[] ordinals;
+    private CallStacks[] stacks;
+    private int size;
+
+    TraceCheckpoints() {
+        ordinals = new long[16];
+        stacks = new CallStacks[16];
+    }
+
+    /**
+     * @param callStacks open calls before the trace with the given ordinal,
+     *                   must not be modified afterwards
+     */
+    void add(long ordinal, CallStacks callStacks) {
+        if (size == ordinals.length) {
+            ordinals = Arrays.copyOf(ordinals, size * 2);
+            stacks = Arrays.copyOf(stacks, size * 2);
+        }
+        ordinals[size] = ordinal;
+        stacks[size] = callStacks;
+        size++;
+    }
+
+    TraceCheckpoints copy() {
+        TraceCheckpoints copy = new TraceCheckpoints();
+        copy.ordinals = Arrays.copyOf(ordinals, ordinals.length);
+        copy.stacks = Arrays.copyOf(stacks, stacks.length);
+        copy.size = size;
+        return copy;
+    }
+
+    static TraceCheckpoints read(ByteBuffer buf) {
+        TraceCheckpoints checkpoints = new TraceCheckpoints();
+        int count = buf.getInt();
+        for (int i = 0; i < count; i++)
+            checkpoints.add(buf.getLong(), CallStacks.read(buf));
+        return checkpoints;
+    }
+
+    void write(DataOutput out) throws IOException {
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            out.writeLong(ordinals[i]);
+            stacks[i].write(out);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return index of the last checkpoint at or before the ordinal or -1 if
+     *         there is none
+     */
+    public int find(long ordinal) {
+        int i = Arrays.binarySearch(ordinals, 0, size, ordinal);
+        return i >= 0 ? i : -i - 2;
+    }
+
+    public long getOrdinal(int checkpoint) {
+        return ordinals[checkpoint];
+    }
+
+    /**
+     * @return copy of open calls at the checkpoint
+     */
+    public CallStacks getStacks(int checkpoint) {
+        return stacks[checkpoint].copy();
+    }
+
+    /**
+     * Reads the traces leading to the position: the given number of traces
+     * of the restored threads preceding the position and the calls left open
+     * by all earlier traces. Traces are replayed from the closest checkpoint.
+     *
+     * @param reader    reader of the trace, moved by the method
+     * @param threadIds sorted ids of the restored threads or null for all
+     */
+    public RestoredTraces restore(TraceFile.Reader reader, long position,
+                                  int tracesNo, long[] threadIds)
+            throws IOException {
+        long span = tracesNo;
+        while (true) {
+            long from = Math.max(0, position - span);
+            RestoredTraces restored = restore(reader, from, position,
+                    tracesNo, threadIds);
+            if (from == 0 || restored.getTraces().size() >= tracesNo)
+                return restored;
+            // Other threads made some of the traces, look further back
+            span *= 2;
+        }
+    }
+
+    private RestoredTraces restore(TraceFile.Reader reader, long from,
+                                   long position, int tracesNo, long[] threadIds)
+            throws IOException {
+        int checkpoint = find(from);
+        CallStacks callStacks;
+        long start;
+        if (checkpoint == -1) {
+            callStacks = new CallStacks();
+            start = 0;
+        } else {
+            callStacks = getStacks(checkpoint);
+            start = getOrdinal(checkpoint);
+        }
+        reader.seek(start);
+        while (reader.getPosition() < from && reader.next()) {
+            callStacks.add(reader.getMethodId(), reader.isReturnCall(),
+                    reader.getCallTime(), reader.getThreadId());
+        }
+
+        TraceBuffer traces = new TraceBuffer(tracesNo);
+        while (reader.getPosition() < position && reader.next()) {
+            if (threadIds != null
+                    && Arrays.binarySearch(threadIds, reader.getThreadId()) < 0)
+                continue;
+            if (traces.size() == traces.getCapacity()) {
+                // The oldest trace is not restored, only its call or return
+                long oldest = traces.getStart();
+                callStacks.add(traces.getMethodId(oldest),
+                        traces.isReturnCall(oldest),
+                        traces.getCallTime(oldest),
+                        traces.getThreadId(oldest));
+            }
+            traces.add(reader.getMethodId(), reader.isReturnCall(),
+                    reader.getCallTime(), reader.getThreadId());
+        }
+        TraceBuffer openCalls = new TraceBuffer(callStacks.getCallsNo());
+        callStacks.addTo(openCalls, threadIds);
+        return new RestoredTraces(openCalls, traces);
+    }
+
+}
@@ -0,0 +1,426 @@
+/*
+ * TraceFile.java
+ *
+ * Copyright (C) 2011-2012, Artur Jonkisz, <travis.source@gmail.com>
+ *
+ * This file is part of TraVis.
+ * See https://github.com/ajonkisz/TraVis for more info.
+ *
+ * TraVis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TraVis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with TraVis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package travis.model.script;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary .vis file opened for reading. Blocks are read from the memory
+ * mapped EVENTS section through a {@link MappedTraceReader}, or copied from
+ * memory once preloaded. Reading is thread safe, each thread should use its
+ * own {@link Reader}.
+ */
+public class TraceFile {
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final int version;
+    private final Map<Integer, long[]> sections;
+    private final List<TraceMethod> methods;
+
+    private final int blockCount;
+    private final long eventCount;
+    private final MappedTraceReader blocks;
+    // Last requested range of decoded blocks, may still be loading
+    private volatile TracePreload preload;
+
+    public TraceFile(File file) throws IOException {
+        this.file = file;
+        raf = new RandomAccessFile(file, "r");
+        channel = raf.getChannel();
+        try {
+            ByteBuffer trailer = read(channel.size() - TraceFormat.TRAILER_SIZE,
+                    TraceFormat.TRAILER_SIZE);
+            long directoryOffset = trailer.getLong();
+            version = trailer.getInt();
+            if (trailer.getInt() != TraceFormat.MAGIC)
+                throw new IOException("Not a binary trace file: " + file);
+            if (version > TraceFormat.VERSION)
+                throw new IOException("Unsupported trace file version "
+                        + version);
+
+            ByteBuffer directory = read(directoryOffset, (int) (channel.size()
+                    - TraceFormat.TRAILER_SIZE - directoryOffset));
+            sections = new HashMap<Integer, long[]>();
+            int count = directory.getInt();
+            for (int i = 0; i < count; i++) {
+                int type = directory.getInt();
+                sections.put(type, new long[]{directory.getLong(),
+                        directory.getLong()});
+            }
+
+            ByteBuffer buf = readSection(TraceFormat.SECTION_METHODS);
+            int methodsNo = buf.getInt();
+            List<TraceMethod> list = new ArrayList<TraceMethod>(methodsNo);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                    buf.array(), buf.position(), buf.remaining()));
+            for (int i = 0; i < methodsNo; i++)
+                list.add(TraceMethod.read(in));
+            methods = Collections.unmodifiableList(list);
+
+            long eventsOffset = sections.get(TraceFormat.SECTION_EVENTS)[0];
+            buf = readSection(TraceFormat.SECTION_INDEX);
+            blockCount = buf.getInt();
+            eventCount = buf.getLong();
+            long[] blockOrdinals = new long[blockCount];
+            long[] blockOffsets = new long[blockCount];
+            int[] blockLengths = new int[blockCount];
+            for (int i = 0; i < blockCount; i++) {
+                blockOrdinals[i] = buf.getLong();
+                blockOffsets[i] = buf.getLong();
+                blockLengths[i] = buf.getInt();
+            }
+            blocks = new MappedTraceReader(channel, eventsOffset, eventCount,
+                    blockOrdinals, blockOffsets, blockLengths);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        } catch (RuntimeException e) {
+            raf.close();
+            throw new IOException("Corrupted trace file: " + file, e);
+        }
+    }
+
+    /**
+     * @return true if the file ends with a binary trace trailer
+     */
+    public static boolean isTraceFile(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            if (raf.length() < TraceFormat.TRAILER_SIZE)
+                return false;
+            raf.seek(raf.length() - 4);
+            return raf.readInt() == TraceFormat.MAGIC;
+        } finally {
+            raf.close();
+        }
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        readFully(buf, position);
+        return buf;
+    }
+
+    private void readFully(ByteBuffer buf, long position) throws IOException {
+        int start = buf.position();
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position() - start) < 0)
+                throw new IOException("Unexpected end of file: " + file);
+        }
+        buf.flip();
+    }
+
+    /**
+     * @return contents of the section or null if the file does not have it
+     */
+    public ByteBuffer readSection(int type) throws IOException {
+        long[] section = sections.get(type);
+        if (section == null)
+            return null;
+        return read(section[0], (int) section[1]);
+    }
+
+    /**
+     * @return call depths stored with the traces or null if the file does
+     *         not have them
+     */
+    public DepthPyramid readDepthPyramid() throws IOException {
+        ByteBuffer buf = readSection(TraceFormat.SECTION_PYRAMID);
+        return buf == null ? null : DepthPyramid.read(buf);
+    }
+
+    /**
+     * @return call stack checkpoints stored with the traces or null if the
+     *         file does not have them
+     */
+    public TraceCheckpoints readCheckpoints() throws IOException {
+        ByteBuffer buf = readSection(TraceFormat.SECTION_CHECKPOINTS);
+        return buf == null ? null : TraceCheckpoints.read(buf);
+    }
+
+    /**
+     * @return blocks of every thread stored with the traces or null if the
+     *         file does not have them
+     */
+    public ThreadIndex readThreadIndex() throws IOException {
+        ByteBuffer buf = readSection(TraceFormat.SECTION_THREADS);
+        return buf == null ? null : ThreadIndex.read(buf);
+    }
+
+    FileChannel getChannel() {
+        return channel;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public List<TraceMethod> getMethods() {
+        return methods;
+    }
+
+    public long getEventCount() {
+        return eventCount;
+    }
+
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    public long getBlockOrdinal(int block) {
+        return blocks.getBlockOrdinal(block);
+    }
+
+    /**
+     * @return index of the block containing the event with the given ordinal
+     */
+    public int findBlock(long ordinal) {
+        return blocks.findBlock(ordinal);
+    }
+
+    /**
+     * @return ordinal following the last event of the block
+     */
+    public long getBlockEnd(int block) {
+        if (block + 1 < blockCount)
+            return blocks.getBlockOrdinal(block + 1);
+        return eventCount;
+    }
+
+    /**
+     * Decodes blocks holding events in the given range into memory in the
+     * background, as many blocks from the start of the range as fit in the
+     * budget. Blocks decoded for the previous range are dropped, unless the
+     * range covers the same blocks.
+     *
+     * @param from   ordinal of the first event of the range
+     * @param to     ordinal following the last event of the range
+     * @param budget maximum number of bytes of decoded events, 0 drops all
+     *               of them
+     */
+    public synchronized void preload(long from, long to, long budget) {
+        int fromBlock = 0;
+        int toBlock = 0;
+        to = Math.min(to, eventCount);
+        if (from < to) {
+            fromBlock = findBlock(Math.max(0, from));
+            toBlock = fromBlock;
+            long bytes = 0;
+            while (toBlock < blockCount && getBlockOrdinal(toBlock) < to) {
+                bytes += (getBlockEnd(toBlock) - getBlockOrdinal(toBlock))
+                        * TraceFormat.EVENT_SIZE;
+                if (bytes > budget)
+                    break;
+                toBlock++;
+            }
+        }
+
+        TracePreload current = preload;
+        if (current != null && current.getFromBlock() == fromBlock
+                && current.getToBlock() == toBlock)
+            return;
+        if (current != null)
+            current.interrupt();
+        preload = null;
+        if (fromBlock < toBlock) {
+            preload = new TracePreload(this, fromBlock, toBlock);
+            preload.start();
+        }
+    }
+
+    /**
+     * @return whether all blocks of the last preloaded range are in memory
+     */
+    public boolean isPreloaded() {
+        TracePreload current = preload;
+        return current != null && current.isLoaded();
+    }
+
+    /**
+     * @return block index and mapped blocks of the file
+     */
+    public MappedTraceReader getBlocks() {
+        return blocks;
+    }
+
+    /**
+     * Decodes a block into the given arrays, return calls are stored as
+     * ~methodId.
+     *
+     * @return number of events in the block
+     */
+    public int readBlock(int block, int[] methods, long[] times,
+                         long[] threads) throws IOException {
+        TraceBlockCodec codec = new TraceBlockCodec();
+        try {
+            return readBlock(block, methods, times, threads, codec);
+        } finally {
+            codec.end();
+        }
+    }
+
+    /**
+     * Decodes a block using buffers of the given codec, nothing is allocated
+     * once the codec buffers are large enough.
+     */
+    int readBlock(int block, int[] methods, long[] times, long[] threads,
+                  TraceBlockCodec codec) throws IOException {
+        TracePreload current = preload;
+        if (current != null && current.contains(block))
+            return current.copyTo(block, methods, times, threads);
+        ByteBuffer buf = codec.getInputBuffer(blocks.getBlockLength(block));
+        blocks.readBlock(block, buf);
+        if (version >= 2) {
+            return codec.decode(buf.array(), buf.arrayOffset(),
+                    buf.remaining(), methods, times, threads);
+        }
+        int count = buf.getInt();
+        if (count < 0 || count > methods.length
+                || buf.remaining() < count * (4 + 8 + 8))
+            throw new IOException("Corrupt trace block");
+        for (int i = 0; i < count; i++) {
+            methods[i] = buf.getInt();
+            times[i] = buf.getLong();
+            threads[i] = buf.getLong();
+        }
+        return count;
+    }
+
+    public Reader openReader(long ordinal) throws IOException {
+        Reader reader = new Reader();
+        reader.seek(ordinal);
+        return reader;
+    }
+
+    public void close() throws IOException {
+        preload(0, 0, 0);
+        raf.close();
+    }
+
+    /**
+     * Reads events one by one starting at any ordinal.
+     */
+    public class Reader {
+
+        private final int[] methods;
+        private final long[] times;
+        private final long[] threads;
+        private final TraceBlockCodec codec;
+        private int block;
+        private int count;
+        private int index;
+        private int current;
+
+        private Reader() {
+            methods = new int[TraceFormat.BLOCK_EVENTS];
+            times = new long[TraceFormat.BLOCK_EVENTS];
+            threads = new long[TraceFormat.BLOCK_EVENTS];
+            codec = new TraceBlockCodec();
+            block = -1;
+        }
+
+        /**
+         * Moves the reader so that next() reads the event with the given
+         * ordinal.
+         */
+        public void seek(long ordinal) throws IOException {
+            if (ordinal >= eventCount) {
+                block = blockCount - 1;
+                count = 0;
+                index = 0;
+                return;
+            }
+            int b = findBlock(Math.max(0, ordinal));
+            if (b != block || count == 0)
+                load(b);
+            index = (int) (Math.max(0, ordinal) - blocks.getBlockOrdinal(b));
+        }
+
+        private void load(int b) throws IOException {
+            count = readBlock(b, methods, times, threads, codec);
+            block = b;
+        }
+
+        public boolean next() throws IOException {
+            if (index >= count) {
+                if (block + 1 >= blockCount)
+                    return false;
+                load(block + 1);
+                index = 0;
+            }
+            current = index++;
+            return true;
+        }
+
+        /**
+         * @return ordinal of the event read by the next call to next()
+         */
+        public long getPosition() {
+            if (count == 0)
+                return block == -1 ? 0 : eventCount;
+            return blocks.getBlockOrdinal(block) + index;
+        }
+
+        public int getMethodId() {
+            int method = methods[current];
+            return method < 0 ? ~method : method;
+        }
+
+        public boolean isReturnCall() {
+            return methods[current] < 0;
+        }
+
+        public long getCallTime() {
+            return times[current];
+        }
+
+        public long getThreadId() {
+            return threads[current];
+        }
+
+        /**
+         * Releases the decoder of the reader, it cannot be read afterwards.
+         */
+        public void close() {
+            codec.end();
+        }
+
+    }
+
+}
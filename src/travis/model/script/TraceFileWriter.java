@@ -0,0 +1,214 @@
+/*
+ * TraceFileWriter.java
+ *
+ * Copyright (C) 2011-2012, Artur Jonkisz, <travis.source@gmail.com>
+ *
+ * This file is part of TraVis.
+ * See https://github.com/ajonkisz/TraVis for more info.
+ *
+ * TraVis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TraVis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with TraVis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package travis.model.script;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import javax.swing.tree.TreePath;
+
+/**
+ * Writes a binary .vis file as described in {@link TraceFormat}.
+ */
+public class TraceFileWriter {
+
+    private final FileOutputStream out;
+    private final FileChannel channel;
+    private final TraceBlockWriter blocks;
+    private final long eventsOffset;
+    private final List<long[]> sections;
+
+    public TraceFileWriter(File dest, TreePath[] treePaths,
+                           Collection<TraceMethod> methods) throws IOException {
+        out = new FileOutputStream(dest);
+        channel = out.getChannel();
+        sections = new ArrayList<long[]>();
+        try {
+            ObjectOutputStream oos = new ObjectOutputStream(out);
+            if (treePaths != null)
+                oos.writeObject(treePaths);
+            oos.writeUTF(ScriptHandler.TREEPATHS_TERMINATING_SEQUENCE + '\n');
+            oos.flush();
+
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            DataOutputStream dos = new DataOutputStream(bos);
+            dos.writeInt(TraceFormat.MAGIC);
+            dos.writeInt(TraceFormat.VERSION);
+            write(bos);
+
+            bos.reset();
+            dos.writeInt(methods.size());
+            for (TraceMethod m : methods)
+                m.write(dos);
+            writeSection(TraceFormat.SECTION_METHODS, bos);
+        } catch (IOException e) {
+            out.close();
+            throw e;
+        }
+
+        eventsOffset = channel.position();
+        blocks = new TraceBlockWriter(channel);
+    }
+
+    public void add(int methodId, boolean returnCall, long time, long threadId)
+            throws IOException {
+        blocks.add(methodId, returnCall, time, threadId);
+    }
+
+    /**
+     * Adds traces from the ordinal range of a trace file. Blocks that are
+     * wholly in the range are transferred without decoding, only traces of
+     * the partial blocks at both ends are encoded again.
+     */
+    public void addRange(TraceFile source, long from, long to)
+            throws IOException {
+        to = Math.min(to, source.getEventCount());
+        if (from >= to)
+            return;
+
+        int first = source.findBlock(from);
+        if (source.getBlockOrdinal(first) != from)
+            first++;
+        int end = to < source.getEventCount() ? source.findBlock(to)
+                : source.getBlockCount();
+        TraceFile.Reader reader = source.openReader(from);
+        try {
+            if (first >= end || source.getVersion() != TraceFormat.VERSION) {
+                addEvents(reader, to);
+                return;
+            }
+
+            addEvents(reader, source.getBlockOrdinal(first));
+            blocks.flush();
+            blocks.transferBlocks(source, first, end);
+            if (end < source.getBlockCount()) {
+                reader.seek(source.getBlockOrdinal(end));
+                addEvents(reader, to);
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void addEvents(TraceFile.Reader reader, long to)
+            throws IOException {
+        while (reader.getPosition() < to && reader.next()) {
+            blocks.add(reader.getMethodId(), reader.isReturnCall(),
+                    reader.getCallTime(), reader.getThreadId());
+        }
+    }
+
+    /**
+     * Appends blocks written by another block writer to the given channel.
+     */
+    void appendBlocks(FileChannel source, TraceBlockWriter sourceBlocks)
+            throws IOException {
+        blocks.flush();
+        blocks.appendBlocks(source, sourceBlocks);
+    }
+
+    /**
+     * @param interval minimal number of events between call stack
+     *                 checkpoints, 0 for none
+     */
+    public void setCheckpointInterval(int interval) {
+        blocks.setCheckpointInterval(interval);
+    }
+
+    public long getEventCount() {
+        return blocks.getEventCount();
+    }
+
+    private void write(ByteArrayOutputStream bos) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bos.toByteArray());
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+    }
+
+    private void writeSection(int type, ByteArrayOutputStream bos)
+            throws IOException {
+        sections.add(new long[]{type, channel.position(), bos.size()});
+        write(bos);
+    }
+
+    /**
+     * Writes out the remaining events, the index and the trailer.
+     */
+    public void close() throws IOException {
+        try {
+            blocks.flush();
+            sections.add(new long[]{TraceFormat.SECTION_EVENTS, eventsOffset,
+                    blocks.getLength()});
+
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            DataOutputStream dos = new DataOutputStream(bos);
+            blocks.writeIndex(dos);
+            writeSection(TraceFormat.SECTION_INDEX, bos);
+
+            DepthPyramid depths = blocks.getDepths();
+            if (depths != null) {
+                bos.reset();
+                depths.write(dos);
+                writeSection(TraceFormat.SECTION_PYRAMID, bos);
+            }
+
+            TraceCheckpoints checkpoints = blocks.getCheckpoints();
+            if (checkpoints != null) {
+                bos.reset();
+                checkpoints.write(dos);
+                writeSection(TraceFormat.SECTION_CHECKPOINTS, bos);
+            }
+
+            ThreadIndex threadIndex = blocks.getThreadIndex();
+            if (threadIndex != null) {
+                bos.reset();
+                threadIndex.write(dos);
+                writeSection(TraceFormat.SECTION_THREADS, bos);
+            }
+
+            long directoryOffset = channel.position();
+            bos.reset();
+            dos.writeInt(sections.size());
+            for (long[] section : sections) {
+                dos.writeInt((int) section[0]);
+                dos.writeLong(section[1]);
+                dos.writeLong(section[2]);
+            }
+            dos.writeLong(directoryOffset);
+            dos.writeInt(TraceFormat.VERSION);
+            dos.writeInt(TraceFormat.MAGIC);
+            write(bos);
+        } finally {
+            blocks.end();
+            out.close();
+        }
+    }
+
+}
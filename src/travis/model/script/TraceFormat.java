@@ -0,0 +1,86 @@
+/*
+ * TraceFormat.java
+ *
+ * Copyright (C) 2011-2012, Artur Jonkisz, <travis.source@gmail.com>
+ *
+ * This file is part of TraVis.
+ * See https://github.com/ajonkisz/TraVis for more info.
+ *
+ * TraVis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TraVis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with TraVis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package travis.model.script;
+
+/**
+ * Layout of binary .vis files. The file starts with the serialized tree paths
+ * followed by {@link ScriptHandler#TREEPATHS_TERMINATING_SEQUENCE}, the rest
+ * is binary:
+ * <pre>
+ * MAGIC | VERSION
+ * sections
+ * directory: count | count * (type | offset | length)
+ * trailer: directory offset | VERSION | MAGIC
+ * </pre>
+ * Offsets are absolute positions in the file. The METHODS section holds the
+ * method table, EVENTS holds blocks of events and INDEX holds the first event
+ * ordinal, offset within EVENTS and length of every block:
+ * <pre>
+ * block count | event count | block count * (ordinal | offset | length)
+ * </pre>
+ * The optional PYRAMID section holds level 0 buckets of the
+ * {@link DepthPyramid}:
+ * <pre>
+ * event count | bucket count | bucket count * (min | max | avg)
+ * </pre>
+ * The optional CHECKPOINTS section holds open calls of every thread before
+ * some of the blocks:
+ * <pre>
+ * count | count * (ordinal | threads | threads * (thread id | depth
+ *     | depth * (method id | call time)))
+ * </pre>
+ * The optional THREADS section holds the number of events of every thread
+ * and the blocks holding them:
+ * <pre>
+ * count | count * (thread id | events | blocks | blocks * block index)
+ * </pre>
+ * Since version 2 blocks are compressed, see {@link TraceBlockCodec}.
+ * Version 1 blocks hold the event count followed by events of
+ * {@link #EVENT_SIZE} bytes.
+ * Files without the trailer are read as the old text format.
+ */
+public final class TraceFormat {
+
+    public static final int MAGIC = 0x54566953;
+    public static final int VERSION = 2;
+
+    public static final int SECTION_METHODS = 1;
+    public static final int SECTION_EVENTS = 2;
+    public static final int SECTION_INDEX = 3;
+    public static final int SECTION_PYRAMID = 4;
+    public static final int SECTION_CHECKPOINTS = 5;
+    public static final int SECTION_THREADS = 6;
+
+    public static final int BLOCK_EVENTS = 4096;
+    // Method id (~id for return calls), call time and thread id
+    public static final int EVENT_SIZE = 4 + 8 + 8;
+
+    // Default minimal number of events between call stack checkpoints
+    public static final int CHECKPOINT_INTERVAL = 1 << 16;
+
+    public static final int TRAILER_SIZE = 8 + 4 + 4;
+    public static final int INDEX_ENTRY_SIZE = 8 + 8 + 4;
+
+    private TraceFormat() {
+    }
+
+}
@@ -0,0 +1,42 @@
+/*
+ * TraceListener.java
+ *
+ * Copyright (C) 2011-2012, Artur Jonkisz, <travis.source@gmail.com>
+ *
+ * This file is part of TraVis.
+ * See https://github.com/ajonkisz/TraVis for more info.
+ *
+ * TraVis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TraVis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with TraVis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package travis.model.script;
+
+public interface TraceListener {
+
+    /**
+     * Called on the event dispatch thread with traces received since the last
+     * call. The buffer is reused once this method returns.
+     */
+    public void tracesReceived(TraceBuffer traces);
+
+    /**
+     * Called on the event dispatch thread before traces that replace all
+     * traces received so far.
+     *
+     * @param openCalls calls opened before the following traces as call
+     *                  traces, thread by thread starting from the outermost
+     *                  call; must not be modified
+     */
+    public void tracesReset(TraceBuffer openCalls);
+
+}
@@ -0,0 +1,95 @@
+/*
+ * TraceMethod.java
+ *
+ * Copyright (C) 2011-2012, Artur Jonkisz, <travis.source@gmail.com>
+ *
+ * This file is part of TraVis.
+ * See https://github.com/ajonkisz/TraVis for more info.
+ *
+ * TraVis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TraVis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with TraVis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package travis.model.script;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import travis.model.project.structure.StructMethod;
+
+/**
+ * Entry of the method table stored with a trace.
+ */
+public class TraceMethod {
+
+    private final int id;
+    private final String parentName;
+    private final int parentAccess;
+    private final String name;
+    private final String descriptor;
+    private final int access;
+
+    public TraceMethod(int id, String parentName, int parentAccess,
+                       String name, String descriptor, int access) {
+        this.id = id;
+        this.parentName = parentName;
+        this.parentAccess = parentAccess;
+        this.name = name;
+        this.descriptor = descriptor;
+        this.access = access;
+    }
+
+    public TraceMethod(int id, StructMethod m) {
+        this(id, m.getParentName(), m.getParent().getAccessFlag(), m.getName(),
+                m.getDescriptor(), m.getAccessFlag());
+    }
+
+    public static TraceMethod read(DataInput in) throws IOException {
+        return new TraceMethod(in.readInt(), in.readUTF(), in.readInt(),
+                in.readUTF(), in.readUTF(), in.readInt());
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(id);
+        out.writeUTF(parentName);
+        out.writeInt(parentAccess);
+        out.writeUTF(name);
+        out.writeUTF(descriptor);
+        out.writeInt(access);
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getParentName() {
+        return parentName;
+    }
+
+    public int getParentAccess() {
+        return parentAccess;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getDescriptor() {
+        return descriptor;
+    }
+
+    public int getAccess() {
+        return access;
+    }
+
+}
@@ -0,0 +1,394 @@
+/*
+ * TracePrefetcher.java
+ *
+ * Copyright (C) 2011-2012, Artur Jonkisz, <travis.source@gmail.com>
+ *
+ * This file is part of TraVis.
+ * See https://github.com/ajonkisz/TraVis for more info.
+ *
+ * TraVis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TraVis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with TraVis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package travis.model.script;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Reads events one by one like {@link TraceFile.Reader}, but blocks are
+ * decoded ahead of the reading position by a background thread, following
+ * the block index forwards or backwards depending on the last seek. Decoded
+ * blocks are queued until they cover about LOOKAHEAD ms of playback at the
+ * current speed, seeking drops them. Reading can be limited to some threads
+ * using a {@link ThreadIndex}, other blocks are then skipped. Reading and
+ * seeking must not be done by different threads at the same time.
+ */
+public class TracePrefetcher {
+
+    private static final long LOOKAHEAD = 1000;
+    private static final int MIN_BLOCKS = 2;
+    private static final int MAX_BLOCKS = 64;
+
+    private final TraceFile traceFile;
+    private final ArrayDeque<Block> ready;
+    private final ArrayDeque<Block> free;
+    private final Thread thread;
+
+    // Guarded by this
+    private int nextBlock;
+    // Index of the first event to read in the next block or -1 for all
+    private int firstIndex;
+    private boolean backward;
+    // Sorted ids of the read threads and blocks holding them, null for all
+    private long[] threadFilter;
+    private int[] blockFilter;
+    private int generation;
+    private boolean decoding;
+    private boolean closed;
+
+    private volatile double speed;
+    // Recorded time covered by the last decoded block
+    private volatile long blockTime;
+
+    // Used only by the reading thread
+    private Block block;
+    private int current;
+    private long position;
+
+    public TracePrefetcher(TraceFile traceFile) {
+        this.traceFile = traceFile;
+        ready = new ArrayDeque<Block>();
+        free = new ArrayDeque<Block>();
+        speed = 1d;
+        thread = new PrefetchThread();
+        thread.start();
+    }
+
+    /**
+     * Sets the factor of recorded time to playback time used to decide how
+     * many blocks are decoded ahead.
+     */
+    public synchronized void setSpeed(double speed) {
+        this.speed = speed;
+        notifyAll();
+    }
+
+    /**
+     * @return number of blocks that cover the lookahead time at the current
+     *         speed
+     */
+    private int getQueueLength() {
+        long time = blockTime;
+        if (time <= 0)
+            return MAX_BLOCKS;
+        double blocks = LOOKAHEAD * 1000000d * speed / time;
+        return (int) Math.max(MIN_BLOCKS, Math.min(MAX_BLOCKS,
+                Math.ceil(blocks)));
+    }
+
+    /**
+     * Limits reading to events of the given threads, which takes effect at
+     * the next seek.
+     *
+     * @param threadIds ids of the read threads or null for all
+     */
+    public synchronized void setThreads(long[] threadIds,
+                                        ThreadIndex threadIndex) {
+        if (threadIds == null) {
+            threadFilter = null;
+            blockFilter = null;
+        } else {
+            threadFilter = threadIds.clone();
+            Arrays.sort(threadFilter);
+            blockFilter = threadIndex.getBlocks(threadFilter);
+        }
+    }
+
+    /**
+     * Drops decoded blocks and moves the reader so that next() reads the
+     * event with the given ordinal.
+     */
+    public void seek(long ordinal) {
+        seek(ordinal, false);
+    }
+
+    /**
+     * Drops decoded blocks and moves the reader so that next() reads the
+     * event with the given ordinal, or previous() the one before it when
+     * reading backward.
+     */
+    public synchronized void seek(long ordinal, boolean backward) {
+        this.backward = backward;
+        generation++;
+        recycle(block);
+        block = null;
+        while (!ready.isEmpty())
+            free.add(ready.poll());
+
+        position = Math.max(0, Math.min(traceFile.getEventCount(), ordinal));
+        long first = backward ? position - 1 : position;
+        if (first < 0) {
+            nextBlock = -1;
+            firstIndex = -1;
+        } else if (first >= traceFile.getEventCount()) {
+            nextBlock = traceFile.getBlockCount();
+            firstIndex = -1;
+        } else {
+            nextBlock = traceFile.findBlock(first);
+            firstIndex = (int) (position - traceFile.getBlockOrdinal(nextBlock));
+            int block = nextBlock;
+            skipFilteredBlocks();
+            if (nextBlock != block)
+                firstIndex = -1;
+        }
+        notifyAll();
+    }
+
+    /**
+     * Moves the next block to the closest one holding events of the read
+     * threads in the reading direction.
+     */
+    private void skipFilteredBlocks() {
+        if (blockFilter == null || !hasNextBlock())
+            return;
+        int i = Arrays.binarySearch(blockFilter, nextBlock);
+        if (i >= 0)
+            return;
+        i = -i - 1;
+        if (backward)
+            nextBlock = i > 0 ? blockFilter[i - 1] : -1;
+        else if (i < blockFilter.length)
+            nextBlock = blockFilter[i];
+        else
+            nextBlock = traceFile.getBlockCount();
+    }
+
+    private boolean hasNextBlock() {
+        if (backward)
+            return nextBlock >= 0;
+        return nextBlock < traceFile.getBlockCount();
+    }
+
+    public boolean next() throws IOException {
+        while (block == null || block.index >= block.count) {
+            if (block != null) {
+                synchronized (this) {
+                    recycle(block);
+                }
+            }
+            block = take();
+            if (block == null)
+                return false;
+        }
+        current = block.index++;
+        position = block.getOrdinal(current) + 1;
+        return true;
+    }
+
+    /**
+     * Reads the event before the current position, only after seeking
+     * backward.
+     */
+    public boolean previous() throws IOException {
+        while (block == null || block.index <= 0) {
+            if (block != null) {
+                synchronized (this) {
+                    recycle(block);
+                }
+            }
+            block = take();
+            if (block == null)
+                return false;
+        }
+        current = --block.index;
+        position = block.getOrdinal(current);
+        return true;
+    }
+
+    private synchronized Block take() throws IOException {
+        while (ready.isEmpty()) {
+            if (closed || (!decoding && !hasNextBlock()))
+                return null;
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+        }
+        Block b = ready.poll();
+        notifyAll();
+        return b;
+    }
+
+    private void recycle(Block b) {
+        if (b != null)
+            free.add(b);
+    }
+
+    /**
+     * @return ordinal of the event read by the next call to next(), or
+     *         following the one read by previous()
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    public int getMethodId() {
+        int method = block.methods[current];
+        return method < 0 ? ~method : method;
+    }
+
+    public boolean isReturnCall() {
+        return block.methods[current] < 0;
+    }
+
+    public long getCallTime() {
+        return block.times[current];
+    }
+
+    public long getThreadId() {
+        return block.threads[current];
+    }
+
+    /**
+     * Stops the background thread, next() returns false afterwards.
+     */
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    private static class Block {
+
+        private final int[] methods;
+        private final long[] times;
+        private final long[] threads;
+        // Indexes of events in the block when some threads are filtered out
+        private final int[] indexes;
+        private boolean filtered;
+        private long ordinal;
+        private int count;
+        private int index;
+
+        Block() {
+            methods = new int[TraceFormat.BLOCK_EVENTS];
+            times = new long[TraceFormat.BLOCK_EVENTS];
+            threads = new long[TraceFormat.BLOCK_EVENTS];
+            indexes = new int[TraceFormat.BLOCK_EVENTS];
+        }
+
+        long getOrdinal(int i) {
+            return ordinal + (filtered ? indexes[i] : i);
+        }
+
+        /**
+         * Keeps only events of the given threads.
+         *
+         * @return number of kept events before the given index
+         */
+        int filter(long[] threadIds, int before) {
+            int kept = 0;
+            int keptBefore = 0;
+            for (int i = 0; i < count; i++) {
+                if (Arrays.binarySearch(threadIds, threads[i]) < 0)
+                    continue;
+                if (i < before)
+                    keptBefore++;
+                methods[kept] = methods[i];
+                times[kept] = times[i];
+                threads[kept] = threads[i];
+                indexes[kept] = i;
+                kept++;
+            }
+            count = kept;
+            filtered = true;
+            return keptBefore;
+        }
+    }
+
+    private class PrefetchThread extends Thread {
+
+        private final TraceBlockCodec codec;
+
+        PrefetchThread() {
+            super("TraVis Trace Prefetcher");
+            setDaemon(true);
+            codec = new TraceBlockCodec();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Block b;
+                    int blockNo;
+                    int index;
+                    int gen;
+                    boolean reverse;
+                    long[] threadIds;
+                    synchronized (TracePrefetcher.this) {
+                        while (!closed && (!hasNextBlock()
+                                || ready.size() >= getQueueLength()))
+                            TracePrefetcher.this.wait();
+                        if (closed)
+                            return;
+                        b = free.isEmpty() ? new Block() : free.poll();
+                        reverse = backward;
+                        threadIds = threadFilter;
+                        blockNo = reverse ? nextBlock-- : nextBlock++;
+                        skipFilteredBlocks();
+                        index = firstIndex;
+                        firstIndex = -1;
+                        gen = generation;
+                        decoding = true;
+                    }
+
+                    try {
+                        b.count = traceFile.readBlock(blockNo, b.methods,
+                                b.times, b.threads, codec);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        b.count = 0;
+                    }
+                    b.ordinal = traceFile.getBlockOrdinal(blockNo);
+                    if (b.count > 0)
+                        blockTime = b.times[b.count - 1] - b.times[0];
+                    b.filtered = false;
+                    if (threadIds != null && index >= 0)
+                        index = b.filter(threadIds, index);
+                    else if (threadIds != null)
+                        b.filter(threadIds, 0);
+                    if (index < 0)
+                        b.index = reverse ? b.count : 0;
+                    else
+                        b.index = Math.min(index, b.count);
+
+                    synchronized (TracePrefetcher.this) {
+                        decoding = false;
+                        if (gen == generation)
+                            ready.add(b);
+                        else
+                            free.add(b);
+                        TracePrefetcher.this.notifyAll();
+                    }
+                }
+            } catch (InterruptedException e) {
+                // Closed
+            } finally {
+                codec.end();
+            }
+        }
+    }
+
+}
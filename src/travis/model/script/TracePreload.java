@@ -0,0 +1,127 @@
+/*
+ * TracePreload.java
+ *
+ * Copyright (C) 2011-2012, Artur Jonkisz, <travis.source@gmail.com>
+ *
+ * This file is part of TraVis.
+ * See https://github.com/ajonkisz/TraVis for more info.
+ *
+ * TraVis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TraVis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with TraVis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package travis.model.script;
+
+import java.io.IOException;
+
+/**
+ * Decodes a range of blocks of a trace file into memory in the background.
+ * Events are kept in columns and copied out once all blocks are loaded.
+ */
+class TracePreload extends Thread {
+
+    private final TraceFile traceFile;
+    private final int fromBlock;
+    private final int toBlock;
+    private final long firstOrdinal;
+    private int[] methods;
+    private long[] times;
+    private long[] threads;
+    private volatile boolean loaded;
+
+    /**
+     * @param fromBlock index of the first preloaded block
+     * @param toBlock   index after the last preloaded block
+     */
+    TracePreload(TraceFile traceFile, int fromBlock, int toBlock) {
+        super("TraVis Trace Preloader");
+        setDaemon(true);
+        this.traceFile = traceFile;
+        this.fromBlock = fromBlock;
+        this.toBlock = toBlock;
+        firstOrdinal = traceFile.getBlockOrdinal(fromBlock);
+    }
+
+    int getFromBlock() {
+        return fromBlock;
+    }
+
+    int getToBlock() {
+        return toBlock;
+    }
+
+    boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * @return whether the block can be copied from memory
+     */
+    boolean contains(int block) {
+        return loaded && block >= fromBlock && block < toBlock;
+    }
+
+    /**
+     * Copies events of a loaded block, return calls are stored as
+     * ~methodId.
+     *
+     * @return number of events in the block
+     */
+    int copyTo(int block, int[] methodsDest, long[] timesDest,
+               long[] threadsDest) {
+        long ordinal = traceFile.getBlockOrdinal(block);
+        int offset = (int) (ordinal - firstOrdinal);
+        int count = (int) (traceFile.getBlockEnd(block) - ordinal);
+        System.arraycopy(methods, offset, methodsDest, 0, count);
+        System.arraycopy(times, offset, timesDest, 0, count);
+        System.arraycopy(threads, offset, threadsDest, 0, count);
+        return count;
+    }
+
+    @Override
+    public void run() {
+        TraceBlockCodec codec = new TraceBlockCodec();
+        try {
+            int length = (int) (traceFile.getBlockEnd(toBlock - 1)
+                    - firstOrdinal);
+            methods = new int[length];
+            times = new long[length];
+            threads = new long[length];
+            int[] blockMethods = new int[TraceFormat.BLOCK_EVENTS];
+            long[] blockTimes = new long[TraceFormat.BLOCK_EVENTS];
+            long[] blockThreads = new long[TraceFormat.BLOCK_EVENTS];
+            for (int b = fromBlock; b < toBlock; b++) {
+                if (isInterrupted())
+                    return;
+                int count = traceFile.readBlock(b, blockMethods, blockTimes,
+                        blockThreads, codec);
+                int offset = (int) (traceFile.getBlockOrdinal(b)
+                        - firstOrdinal);
+                System.arraycopy(blockMethods, 0, methods, offset, count);
+                System.arraycopy(blockTimes, 0, times, offset, count);
+                System.arraycopy(blockThreads, 0, threads, offset, count);
+            }
+            loaded = true;
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (OutOfMemoryError e) {
+            // Blocks are read from the file as if they were not preloaded
+            methods = null;
+            times = null;
+            threads = null;
+            e.printStackTrace();
+        } finally {
+            codec.end();
+        }
+    }
+
+}
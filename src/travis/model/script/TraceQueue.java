@@ -0,0 +1,105 @@
+/*
+ * TraceQueue.java
+ *
+ * Copyright (C) 2011-2012, Artur Jonkisz, <travis.source@gmail.com>
+ *
+ * This file is part of TraVis.
+ * See https://github.com/ajonkisz/TraVis for more info.
+ *
+ * TraVis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TraVis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with TraVis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package travis.model.script;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free queue of trace events with many producers and a single
+ * consumer. Events are kept in primitive arrays; a slot is published by
+ * setting its sequence once the event has been written. When the queue is
+ * full new events are dropped and counted.
+ */
+class TraceQueue {
+
+    private final int mask;
+    private final int[] methods;
+    private final long[] times;
+    private final long[] threads;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail;
+    private final AtomicLong dropped;
+    private volatile long head;
+
+    TraceQueue(int capacityPowerOfTwo) {
+        int capacity = 1 << capacityPowerOfTwo;
+        mask = capacity - 1;
+        methods = new int[capacity];
+        times = new long[capacity];
+        threads = new long[capacity];
+        sequences = new AtomicLongArray(capacity);
+        tail = new AtomicLong();
+        dropped = new AtomicLong();
+    }
+
+    boolean offer(int methodId, boolean returnCall, long time, long threadId) {
+        long t;
+        do {
+            t = tail.get();
+            if (t - head > mask) {
+                dropped.incrementAndGet();
+                return false;
+            }
+        } while (!tail.compareAndSet(t, t + 1));
+
+        int i = (int) t & mask;
+        methods[i] = returnCall ? ~methodId : methodId;
+        times[i] = time;
+        threads[i] = threadId;
+        sequences.lazySet(i, t + 1);
+        return true;
+    }
+
+    /**
+     * Moves up to max published events to the given arrays. Return calls are
+     * stored as ~methodId. Must only be called by one thread at a time.
+     *
+     * @return number of events moved
+     */
+    int drainTo(int[] methodsDest, long[] timesDest, long[] threadsDest,
+                int max) {
+        long h = head;
+        int n = 0;
+        while (n < max) {
+            int i = (int) h & mask;
+            if (sequences.get(i) != h + 1)
+                break;
+            methodsDest[n] = methods[i];
+            timesDest[n] = times[i];
+            threadsDest[n] = threads[i];
+            n++;
+            h++;
+        }
+        head = h;
+        return n;
+    }
+
+    int getDepth() {
+        return (int) Math.max(0, tail.get() - head);
+    }
+
+    long getDropped() {
+        return dropped.get();
+    }
+
+}
@@ -0,0 +1,229 @@
+/*
+ * WireDecoder.java
+ *
+ * Copyright (C) 2011-2012, Artur Jonkisz, <travis.source@gmail.com>
+ *
+ * This file is part of TraVis.
+ * See https://github.com/ajonkisz/TraVis for more info.
+ *
+ * TraVis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TraVis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with TraVis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package travis.model.script;
+
+import java.io.PrintStream;
+
+import travis.agent.WireFormat;
+
+/**
+ * Decodes WireFormat frames sent by the TraVis agent and hands the events to
+ * ScriptHandler.
+ */
+public class WireDecoder {
+
+    // Larger short ids are taken as corrupt rather than grow the id table
+    private static final int MAX_SHORT_ID = 1 << 20;
+
+    private final ScriptHandler handler;
+    private final PrintStream text;
+    private final byte[] pending;
+    private int pendingLength;
+    private long[] threadIds;
+    private int position;
+
+    public WireDecoder() {
+        this(null);
+    }
+
+    /**
+     * @param text stream bytes that are not part of a frame are printed to,
+     *             such as the output of a traced program sharing the stream
+     *             with the agent
+     */
+    public WireDecoder(PrintStream text) {
+        this.text = text;
+        handler = ScriptHandler.getInstance();
+        pending = new byte[WireFormat.MAX_FRAME * 2];
+        threadIds = new long[64];
+    }
+
+    /**
+     * Decodes a chunk of the stream. Frames may be split between chunks,
+     * bytes that are not part of a frame are printed as text or skipped.
+     */
+    public void decode(byte[] buf, int off, int len) {
+        while (len > 0) {
+            int n = Math.min(len, pending.length - pendingLength);
+            System.arraycopy(buf, off, pending, pendingLength, n);
+            pendingLength += n;
+            off += n;
+            len -= n;
+
+            int consumed = decodeFrames(pending, 0, pendingLength);
+            pendingLength -= consumed;
+            System.arraycopy(pending, consumed, pending, 0, pendingLength);
+        }
+    }
+
+    private int decodeFrames(byte[] buf, int off, int len) {
+        int start = off;
+        int end = off + len;
+        int textStart = off;
+        while (off < end) {
+            if (!isMarkerPrefix(buf, off, end)) {
+                // Resynchronise on the next marker
+                off++;
+                continue;
+            }
+            int consumed = decodeFrame(buf, off, end - off);
+            if (consumed == 0)
+                // Wait for the rest of the frame
+                break;
+            if (consumed == 1) {
+                off++;
+                continue;
+            }
+            printText(buf, textStart, off - textStart);
+            off += consumed;
+            textStart = off;
+        }
+        printText(buf, textStart, off - textStart);
+        return off - start;
+    }
+
+    /**
+     * @return true if the bytes available from the offset start the marker
+     */
+    private boolean isMarkerPrefix(byte[] buf, int off, int end) {
+        int n = Math.min(WireFormat.MARKER.length, end - off);
+        for (int i = 0; i < n; i++) {
+            if (buf[off + i] != WireFormat.MARKER[i])
+                return false;
+        }
+        return true;
+    }
+
+    private void printText(byte[] buf, int off, int len) {
+        if (text != null && len > 0)
+            text.write(buf, off, len);
+    }
+
+    /**
+     * Decodes a single frame starting with the marker at the given offset.
+     * The payload is checked against its length before any event is handed
+     * on, a malformed frame is taken as text.
+     *
+     * @return number of bytes consumed, 0 if the frame is not complete or 1
+     *         if the marker does not start a frame
+     */
+    public int decodeFrame(byte[] buf, int off, int len) {
+        if (len < WireFormat.FRAME_HEADER)
+            return 0;
+        int type = buf[off + WireFormat.MARKER.length];
+        int length = ((buf[off + WireFormat.MARKER.length + 1] & 0xFF) << 8)
+                | (buf[off + WireFormat.MARKER.length + 2] & 0xFF);
+        int frameLength = WireFormat.FRAME_HEADER + length;
+        if (frameLength > WireFormat.MAX_FRAME
+                || (type != WireFormat.FRAME_THREAD
+                && type != WireFormat.FRAME_EVENTS))
+            // Not a frame, the marker byte is a part of the text
+            return 1;
+        if (len < frameLength)
+            return 0;
+
+        int payload = off + WireFormat.FRAME_HEADER;
+        int end = off + frameLength;
+        if (type == WireFormat.FRAME_THREAD) {
+            if (!decodeThread(buf, payload, end))
+                return 1;
+        } else {
+            if (!isEventsPayload(buf, payload, end))
+                return 1;
+            decodeEvents(buf, payload, end);
+        }
+        return frameLength;
+    }
+
+    private boolean decodeThread(byte[] buf, int off, int end) {
+        position = off;
+        long shortId = readVarlong(buf, end);
+        long threadId = readVarlong(buf, end);
+        if (position != end || shortId < 0 || shortId >= MAX_SHORT_ID)
+            return false;
+        if (shortId >= threadIds.length) {
+            long[] ids = new long[(int) Math.max(shortId + 1,
+                    threadIds.length * 2)];
+            System.arraycopy(threadIds, 0, ids, 0, threadIds.length);
+            threadIds = ids;
+        }
+        threadIds[(int) shortId] = threadId;
+        return true;
+    }
+
+    /**
+     * @return true if the payload holds exactly the number of events it
+     *         declares
+     */
+    private boolean isEventsPayload(byte[] buf, int off, int end) {
+        position = off;
+        readVarlong(buf, end);
+        if (position < 0 || end - position < 2)
+            return false;
+        int count = ((buf[position] & 0xFF) << 8) | (buf[position + 1] & 0xFF);
+        position += 2;
+        readVarlong(buf, end);
+        for (int i = 0; i < count && position >= 0; i++) {
+            readVarlong(buf, end);
+            readVarlong(buf, end);
+        }
+        return position == end;
+    }
+
+    private void decodeEvents(byte[] buf, int off, int end) {
+        position = off;
+        long shortId = readVarlong(buf, end);
+        long threadId = shortId >= 0 && shortId < threadIds.length
+                ? threadIds[(int) shortId] : -1;
+        int count = ((buf[position] & 0xFF) << 8) | (buf[position + 1] & 0xFF);
+        position += 2;
+        long time = WireFormat.unzigzag(readVarlong(buf, end));
+        for (int i = 0; i < count; i++) {
+            long code = readVarlong(buf, end);
+            time += WireFormat.unzigzag(readVarlong(buf, end));
+            handler.writeTrace((int) (code >>> 1), (code & 1) != 0, time,
+                    threadId);
+        }
+    }
+
+    /**
+     * Reads a varlong ending before the given end. If there is none the
+     * position is set to -1, and reading on returns 0.
+     */
+    private long readVarlong(byte[] buf, int end) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            if (position < 0 || position >= end
+                    || shift >= WireFormat.MAX_VARLONG * 7) {
+                position = -1;
+                return 0;
+            }
+            b = buf[position++];
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+}
@@ -24,6 +24,7 @@ package travis.view;
 import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.geom.Line2D;
 import java.util.Arrays;
 
@@ -75,11 +76,8 @@ public class Bspline {
 
     private final int[] pX;
     private final int[] pY;
-    private final double[] dx;
-    private final double[] dy;
     private final int n;
-    private int[] txPts;
-    private int[] tyPts;
+    private volatile Geometry geometry;
 
     public Bspline(Point[] points) {
         pX = new int[points.length];
@@ -90,8 +88,6 @@ public class Bspline {
         }
 
         n = pX.length;
-        dx = new double[n];
-        dy = new double[n];
     }
 
     public int getStartPointX() {
@@ -110,11 +106,27 @@ public class Bspline {
         return pY[pY.length - 1];
     }
 
-    private void straightenControlPoints(int[] pointsX, int[] pointsY) {
+    /**
+     * @return geometry the spline was last drawn with or null if it was not
+     *         drawn yet
+     */
+    public Geometry getGeometry() {
+        return geometry;
+    }
+
+    /**
+     * Sets geometry tessellated earlier for equal control points, it is
+     * drawn without being computed again.
+     */
+    public void setGeometry(Geometry geometry) {
+        this.geometry = geometry;
+    }
+
+    private static void straightenControlPoints(int[] pointsX, int[] pointsY,
+                                                double beta) {
         int length = pointsX.length;
         int length1 = length - 1;
         for (int i = 1; i < length1; i++) {
-            double beta = Settings.getInstance().getCurveBundlingStrength();
             double iOverL1 = (double) i / length1;
             pointsX[i] = (int) (beta * pointsX[i] + (1 - beta)
                     * (pointsX[0] + iOverL1 * (pointsX[length1] - pointsX[0])));
@@ -123,7 +135,9 @@ public class Bspline {
         }
     }
 
-    public void findControlPoints(int[] xPts, int[] yPts) {
+    private static void findControlPoints(int[] xPts, int[] yPts, double[] dx,
+                                          double[] dy) {
+        int n = xPts.length;
         double[] aX = new double[n];
         double[] aY = new double[n];
         double[] bI = new double[n];
@@ -143,15 +157,12 @@ public class Bspline {
     }
 
     public void draw(Graphics g, Color color) {
+        Geometry geo = geometry;
+        if (geo == null)
+            return;
         g.setColor(color);
-        int counter = 0;
-        for (int i = 0; i < n - 1; i++) {
-            for (int k = 0; k < SEGMENTS; k++) {
-                counter++;
-                g.drawLine(txPts[counter - 1], tyPts[counter - 1],
-                        txPts[counter], tyPts[counter]);
-            }
-        }
+        for (int i = 1; i < geo.xs.length; i++)
+            g.drawLine(geo.xs[i - 1], geo.ys[i - 1], geo.xs[i], geo.ys[i]);
     }
 
     public void draw(Graphics g, float alpha) {
@@ -160,17 +171,40 @@ public class Bspline {
         if (n < 2)
             return;
 
+        double bundlingStrength = Settings.getInstance()
+                .getCurveBundlingStrength();
+        Geometry geo = geometry;
+        if (geo == null || geo.bundlingStrength != bundlingStrength) {
+            geo = tessellate(bundlingStrength);
+            geometry = geo;
+        }
+        geo.draw(g, alpha);
+    }
+
+    /**
+     * Computes the points of the curve straightened by the bundling
+     * strength, along with the colour of every segment.
+     *
+     * @return geometry of the curve or null if it has less than two points
+     */
+    public Geometry tessellate(double bundlingStrength) {
+        if (n < 2)
+            return null;
+
         int[] pX = Arrays.copyOf(this.pX, this.pX.length);
         int[] pY = Arrays.copyOf(this.pY, this.pY.length);
-        straightenControlPoints(pX, pY);
+        straightenControlPoints(pX, pY, bundlingStrength);
 
-        findControlPoints(pX, pY);
+        double[] dx = new double[n];
+        double[] dy = new double[n];
+        findControlPoints(pX, pY, dx, dy);
 
         int[] gIndexes = getDistanceProportionalGradientIndexes();
 
         int total = (n - 1) * SEGMENTS;
-        txPts = new int[total + 1];
-        tyPts = new int[total + 1];
+        int[] txPts = new int[total + 1];
+        int[] tyPts = new int[total + 1];
+        byte[] gradients = new byte[total];
         txPts[0] = pX[0];
         tyPts[0] = pY[0];
 
@@ -191,17 +225,16 @@ public class Bspline {
                         txPts[counter], tyPts[counter]) < 2) {
                     txPts[counter] = txPts[counter - 1];
                     tyPts[counter] = tyPts[counter - 1];
+                    gradients[counter - 1] = -1;
                     continue;
                 }
 
                 int gIndex = (int) ((double) k / SEGMENTS * gIndexes[i]);
-                int aIndex = (int) (alpha * (ALPHA_DEPTH - 1));
-                g.setColor(GRADIENTS_ALPHA[aIndex][previousGradIndex + gIndex]);
-                g.drawLine(txPts[counter - 1], tyPts[counter - 1],
-                        txPts[counter], tyPts[counter]);
+                gradients[counter - 1] = (byte) (previousGradIndex + gIndex);
             }
             previousGradIndex += gIndexes[i];
         }
+        return new Geometry(txPts, tyPts, gradients, bundlingStrength);
     }
 
     private int[] getDistanceProportionalGradientIndexes() {
@@ -226,24 +259,89 @@ public class Bspline {
     }
 
     public double distanceFrom(Point point) {
-        // txPts are null when spline was not drawn on the screen.
-        if (txPts == null)
+        // Geometry is null when spline was not drawn on the screen.
+        if (geometry == null)
             return Double.MAX_VALUE;
         return distanceFrom(this, point);
     }
 
     public static double distanceFrom(Bspline s, Point point) {
-        if (s.n < 2) {
+        Geometry geo = s.geometry;
+        if (s.n < 2 || geo == null) {
             return point.distance(s.pX[0], s.pY[0]);
         }
 
         double min = Double.MAX_VALUE;
-        for (int i = 0; i < s.txPts.length - 1; i++) {
-            double dist = Line2D.ptSegDist(s.txPts[i], s.tyPts[i],
-                    s.txPts[i + 1], s.tyPts[i + 1], point.x, point.y);
+        for (int i = 0; i < geo.xs.length - 1; i++) {
+            double dist = Line2D.ptSegDist(geo.xs[i], geo.ys[i],
+                    geo.xs[i + 1], geo.ys[i + 1], point.x, point.y);
             min = Math.min(min, dist);
         }
         return min;
     }
 
+    /**
+     * Points of a tessellated curve and the gradient colour of every segment
+     * between them, segments too short to be drawn have no colour.
+     */
+    public static class Geometry {
+        private final int[] xs;
+        private final int[] ys;
+        private final byte[] gradients;
+        private final double bundlingStrength;
+        private final Rectangle bounds;
+
+        private Geometry(int[] xs, int[] ys, byte[] gradients,
+                         double bundlingStrength) {
+            this.xs = xs;
+            this.ys = ys;
+            this.gradients = gradients;
+            this.bundlingStrength = bundlingStrength;
+            int minX = xs[0];
+            int minY = ys[0];
+            int maxX = xs[0];
+            int maxY = ys[0];
+            for (int i = 1; i < xs.length; i++) {
+                minX = Math.min(minX, xs[i]);
+                minY = Math.min(minY, ys[i]);
+                maxX = Math.max(maxX, xs[i]);
+                maxY = Math.max(maxY, ys[i]);
+            }
+            // Antialiased lines cover pixels next to their points
+            bounds = new Rectangle(minX - 2, minY - 2, maxX - minX + 5, maxY
+                    - minY + 5);
+        }
+
+        public double getBundlingStrength() {
+            return bundlingStrength;
+        }
+
+        /**
+         * @return area of all pixels the curve is drawn on
+         */
+        public Rectangle getBounds() {
+            return new Rectangle(bounds);
+        }
+
+        /**
+         * Draws every segment as a line, the colour is set only where the
+         * gradient changes. Thin antialiased lines are drawn faster than
+         * segments joined into paths.
+         */
+        public void draw(Graphics g, float alpha) {
+            Color[] colors = GRADIENTS_ALPHA[(int) (alpha * (ALPHA_DEPTH - 1))];
+            int last = -1;
+            for (int i = 0; i < gradients.length; i++) {
+                int gradient = gradients[i];
+                if (gradient < 0)
+                    continue;
+                if (gradient != last) {
+                    g.setColor(colors[gradient]);
+                    last = gradient;
+                }
+                g.drawLine(xs[i], ys[i], xs[i + 1], ys[i + 1]);
+            }
+        }
+    }
+
 }
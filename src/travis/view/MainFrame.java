@@ -55,6 +55,7 @@ public class MainFrame extends JFrame implements ActionListener {
     private final JTabbedPane tabbedPane;
 
     private JMenuItem saveSubtrace;
+    private JMenuItem exportFrames;
     private JMenuItem saveAs;
 
     public MainFrame() {
@@ -98,6 +99,7 @@ public class MainFrame extends JFrame implements ActionListener {
 
         UIHelper.getInstance().getPlaybackPanel().setEnabled(false);
         saveSubtrace.setEnabled(false);
+        exportFrames.setEnabled(false);
         saveAs.setEnabled(true);
     }
 
@@ -107,6 +109,7 @@ public class MainFrame extends JFrame implements ActionListener {
 
         UIHelper.getInstance().getPlaybackPanel().setEnabled(true);
         saveSubtrace.setEnabled(true);
+        exportFrames.setEnabled(true);
         saveAs.setEnabled(false);
     }
 
@@ -152,6 +155,13 @@ public class MainFrame extends JFrame implements ActionListener {
         saveSubtrace.addActionListener(this);
         menu.add(saveSubtrace);
 
+        exportFrames = new JMenuItem(Messages.get("export.frames"),
+                KeyEvent.VK_E);
+        exportFrames.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_E,
+                OPTION_KEY));
+        exportFrames.addActionListener(this);
+        menu.add(exportFrames);
+
         // Graph
         menu = new JMenu(Messages.get("graph"));
         menu.setMnemonic(KeyEvent.VK_G);
@@ -179,6 +189,8 @@ public class MainFrame extends JFrame implements ActionListener {
             UIHelper.getInstance().saveFileAs();
         } else if (e.getActionCommand().equals(Messages.get("save.subtrace"))) {
             UIHelper.getInstance().saveSubtrace();
+        } else if (e.getActionCommand().equals(Messages.get("export.frames"))) {
+            UIHelper.getInstance().exportFrames();
         } else if (e.getActionCommand().equals(Messages.get("reset.traces"))) {
             UIGraphicsHelper.getInstance().resetConnectionsAndRepaintGraph();
         }
@@ -27,6 +27,7 @@ import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import javax.swing.JCheckBoxMenuItem;
 import javax.swing.JMenuItem;
 import javax.swing.JPanel;
 import javax.swing.JPopupMenu;
@@ -36,15 +37,22 @@ import javax.swing.Timer;
 
 import net.miginfocom.swing.MigLayout;
 import travis.model.script.ScriptPrinter;
+import travis.model.script.TraceBuffer;
+import travis.model.script.TraceBus;
+import travis.model.script.TraceListener;
 import travis.util.Messages;
 
-public class ConsolePanel extends JPanel implements ActionListener, Printer {
+public class ConsolePanel extends JPanel implements ActionListener, Printer,
+        TraceListener {
 
     private static final long serialVersionUID = -8355796638620826169L;
+    // Traces printed per batch when printing traces
+    private static final int MAX_PRINTED_TRACES = 100;
 
     private final JTextArea console;
     private final JScrollPane pane;
     private final Timer scrollTimer;
+    private boolean printingTraces;
 
     public ConsolePanel() {
         super(new MigLayout("fill, insets 0"));
@@ -70,6 +78,15 @@ public class ConsolePanel extends JPanel implements ActionListener, Printer {
                         }
                     });
                     menu.add(item);
+                    final JCheckBoxMenuItem printItem = new JCheckBoxMenuItem(
+                            Messages.get("print.traces"), printingTraces);
+                    printItem.addActionListener(new ActionListener() {
+                        @Override
+                        public void actionPerformed(ActionEvent e) {
+                            setPrintingTraces(printItem.isSelected());
+                        }
+                    });
+                    menu.add(printItem);
                     menu.show(e.getComponent(), e.getX(), e.getY());
                 }
             }
@@ -93,6 +110,38 @@ public class ConsolePanel extends JPanel implements ActionListener, Printer {
 
     }
 
+    private void setPrintingTraces(boolean printingTraces) {
+        this.printingTraces = printingTraces;
+        if (printingTraces) {
+            TraceBus.getInstance().addTraceListener(this);
+        } else {
+            TraceBus.getInstance().removeTraceListener(this);
+        }
+    }
+
+    @Override
+    public void tracesReceived(TraceBuffer traces) {
+        StringBuilder sb = new StringBuilder();
+        int skipped = traces.size() - MAX_PRINTED_TRACES;
+        if (skipped > 0)
+            sb.append(Messages.format("traces.skipped", skipped)).append('\n');
+
+        TraceBuffer.Cursor c = traces.cursor();
+        for (int i = 0; c.next(); i++) {
+            if (i < skipped)
+                continue;
+            sb.append(c.isReturnCall() ? "<-- " : "--> ");
+            sb.append(c.getMethodId()).append(' ');
+            sb.append(c.getCallTime()).append(' ');
+            sb.append(c.getThreadId()).append('\n');
+        }
+        write(sb.toString());
+    }
+
+    @Override
+    public void tracesReset(TraceBuffer openCalls) {
+    }
+
     @Override
     public void actionPerformed(ActionEvent e) {
         pane.getVerticalScrollBar().setValue(
@@ -24,7 +24,7 @@ package travis.view.playback;
 import java.awt.Graphics;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.io.FileNotFoundException;
+import java.io.IOException;
 import javax.swing.JButton;
 import javax.swing.JPanel;
 
@@ -46,6 +46,9 @@ public class PlaybackPanel extends JPanel implements ActionListener {
     private final JButton playButton;
     private final JButton pauseButton;
     private final JButton stopButton;
+    private final JButton reverseButton;
+    private final JButton stepBackButton;
+    private final JButton stepForwardButton;
     private final PlaybackProgress progress;
     private volatile JButton activeButton;
 
@@ -58,13 +61,22 @@ public class PlaybackPanel extends JPanel implements ActionListener {
         pauseButton.addActionListener(this);
         stopButton = Util.getButtonWithIcon("stopSmall32");
         stopButton.addActionListener(this);
-
-        add(playButton, "cell 0 0");
+        reverseButton = Util.getButtonWithIcon("reverseSmall32");
+        reverseButton.addActionListener(this);
+        stepBackButton = Util.getButtonWithIcon("stepBackSmall32");
+        stepBackButton.addActionListener(this);
+        stepForwardButton = Util.getButtonWithIcon("stepForwardSmall32");
+        stepForwardButton.addActionListener(this);
+
+        add(stepBackButton, "cell 0 0");
+        add(reverseButton, "cell 1 0");
+        add(playButton, "cell 2 0");
         activeButton = playButton;
-        add(stopButton, "cell 1 0");
+        add(stepForwardButton, "cell 3 0");
+        add(stopButton, "cell 4 0");
 
         progress = new PlaybackProgress(this);
-        add(progress, "cell 2 0, w 90%, grow");
+        add(progress, "cell 5 0, w 90%, grow");
     }
 
     public PlaybackProgress getPlaybackProgress() {
@@ -76,6 +88,9 @@ public class PlaybackPanel extends JPanel implements ActionListener {
         super.setEnabled(enabled);
         activeButton.setEnabled(enabled);
         stopButton.setEnabled(enabled);
+        reverseButton.setEnabled(enabled);
+        stepBackButton.setEnabled(enabled);
+        stepForwardButton.setEnabled(enabled);
         progress.setVisible(enabled);
     }
 
@@ -106,10 +121,44 @@ public class PlaybackPanel extends JPanel implements ActionListener {
         }
     }
 
+    public void playBackward() {
+        if (activeButton == playButton)
+            togglePlayPause(playButton, pauseButton);
+        if (playback != null) {
+            updatePlaybackSpeed();
+            updatePlaybackMode(false);
+            playback.playBackward(Settings.getInstance().getCachedTracesNo());
+        }
+    }
+
+    public void stepForward() {
+        if (activeButton == pauseButton)
+            togglePlayPause(pauseButton, playButton);
+        if (playback != null) {
+            updatePlaybackMode(false);
+            playback.stepForward();
+        }
+    }
+
+    public void stepBack() {
+        if (activeButton == pauseButton)
+            togglePlayPause(pauseButton, playButton);
+        if (playback != null) {
+            updatePlaybackMode(false);
+            playback.stepBack(Settings.getInstance().getCachedTracesNo());
+        }
+    }
+
     public void updatePlaybackSpeed() {
         if (playback != null) {
-            playback.setCurvesPerSecond(Settings.getInstance()
-                    .getCurvesPerSec());
+            playback.setSpeed(Settings.getInstance().getPlaybackSpeed());
+        }
+    }
+
+    public void updatePreloadBudget() {
+        if (playback != null) {
+            playback.setPreloadBudget(Settings.getInstance()
+                    .getPreloadBudget() * (1L << 20));
         }
     }
 
@@ -142,7 +191,7 @@ public class PlaybackPanel extends JPanel implements ActionListener {
 
     private void togglePlayPause(JButton from, JButton to) {
         remove(from);
-        add(to, "cell 0 0");
+        add(to, "cell 2 0");
         to.requestFocusInWindow();
         activeButton = to;
         validate();
@@ -163,6 +212,12 @@ public class PlaybackPanel extends JPanel implements ActionListener {
             pause();
         } else if (e.getSource().equals(stopButton)) {
             stop();
+        } else if (e.getSource().equals(reverseButton)) {
+            playBackward();
+        } else if (e.getSource().equals(stepBackButton)) {
+            stepBack();
+        } else if (e.getSource().equals(stepForwardButton)) {
+            stepForward();
         }
     }
 
@@ -171,9 +226,10 @@ public class PlaybackPanel extends JPanel implements ActionListener {
             playback = AttacherFactory.newAttacher(fp);
             UIHelper.getInstance().startAttacher(playback);
             updatePlaybackMode(true);
+            updatePreloadBudget();
             progress.setupPlaybackGraph(fp.getDepths(), fp.getMaxDepth());
             progress.resetPlaybackRange();
-        } catch (FileNotFoundException e) {
+        } catch (IOException e) {
             e.printStackTrace();
         }
     }
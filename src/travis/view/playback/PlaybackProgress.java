@@ -31,14 +31,19 @@ import java.awt.event.ActionListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.image.MemoryImageSource;
-import java.util.List;
+import java.util.Arrays;
+import javax.swing.JCheckBoxMenuItem;
+import javax.swing.JMenu;
 import javax.swing.JMenuItem;
 import javax.swing.JPanel;
 import javax.swing.JPopupMenu;
 
 import travis.controller.UIGraphicsHelper;
 import travis.model.attach.Playback;
+import travis.model.script.DepthPyramid;
+import travis.model.script.ThreadIndex;
 import travis.util.Messages;
+import travis.view.settings.Settings;
 
 public class PlaybackProgress extends JPanel {
 
@@ -48,10 +53,21 @@ public class PlaybackProgress extends JPanel {
     private static final Color CURRENT_POS = new Color(0x44, 0x44, 0xff);
     private static final int TOP_MARGIN = 3;
 
+    private static final int DEPTH_MIN = (255 << 24) - (1 << 23);
+    private static final int DEPTH_MAX = (128 << 24) - (1 << 23);
+    private static final int DEPTH_AVG = (255 << 24) + (0x80 << 16);
+
     private final PlaybackPanel playbackPanel;
     private final MouseHandler mouseHandler;
 
+    private DepthPyramid depths;
+    private int maxDepth;
+    // Visible part of the traces, as fractions of all traces
+    private double viewStart;
+    private double viewEnd = 1d;
     private Image depthGraph;
+    private int graphWidth;
+    private int graphHeight;
 
     public PlaybackProgress(PlaybackPanel playbackPanel) {
         super();
@@ -62,31 +78,68 @@ public class PlaybackProgress extends JPanel {
         addMouseMotionListener(mouseHandler);
     }
 
-    public void setupPlaybackGraph(List<Integer> depths, int maxDepth) {
-        if (maxDepth == 0) {
+    public void setupPlaybackGraph(DepthPyramid depths, int maxDepth) {
+        this.depths = depths;
+        this.maxDepth = maxDepth;
+        viewStart = 0d;
+        viewEnd = 1d;
+        createDepthGraph();
+    }
+
+    /**
+     * Draws the minimum, maximum and average depth of the visible traces,
+     * one column of the pyramid per pixel.
+     */
+    private void createDepthGraph() {
+        int w = getWidth();
+        int h = getHeight() - TOP_MARGIN;
+        graphWidth = w;
+        graphHeight = h;
+        if (depths == null || maxDepth == 0 || w <= 0 || h <= 0) {
             depthGraph = null;
             return;
         }
 
-        int red = (255 << 24) - (1 << 23);
-        int w = getWidth();
-        int h = getHeight() - TOP_MARGIN;
-        int[] pix = new int[w * h];
-        int maxIndex = depths.size() - 1;
+        int[] min = new int[w];
+        int[] max = new int[w];
+        float[] avg = new float[w];
+        long eventCount = depths.getEventCount();
+        depths.sample((long) (viewStart * eventCount),
+                (long) Math.ceil(viewEnd * eventCount), min, max, avg);
 
+        int[] pix = new int[w * h];
         for (int i = 0; i < w; i++) {
-            float widthPercent = (float) i / (w - 1);
-            float depth = depths.get((int) (widthPercent * maxIndex));
-            float depthPercent = depth / maxDepth;
-            int height = (int) (h - h * depthPercent);
-            for (int j = height; j < h; j++) {
-                pix[j * w + i] = red;
-            }
+            int minHeight = getDepthHeight(min[i], h);
+            int maxHeight = getDepthHeight(max[i], h);
+            for (int j = maxHeight; j < minHeight; j++)
+                pix[j * w + i] = DEPTH_MAX;
+            for (int j = minHeight; j < h; j++)
+                pix[j * w + i] = DEPTH_MIN;
+            int avgHeight = getDepthHeight(avg[i], h);
+            if (avgHeight < h)
+                pix[avgHeight * w + i] = DEPTH_AVG;
         }
 
         depthGraph = createImage(new MemoryImageSource(w, h, pix, 0, w));
     }
 
+    private int getDepthHeight(float depth, int h) {
+        return (int) (h - h * depth / maxDepth);
+    }
+
+    /**
+     * @return position in all traces as a fraction for a point of the bar
+     */
+    private double toPosition(double x) {
+        double pos = viewStart + x / getWidth() * (viewEnd - viewStart);
+        return Math.max(0d, Math.min(1d, pos));
+    }
+
+    private int toX(double position) {
+        return (int) ((position - viewStart) / (viewEnd - viewStart)
+                * getWidth());
+    }
+
     public Point getMouseDragStart() {
         return mouseHandler.mouseDragStart;
     }
@@ -106,6 +159,9 @@ public class PlaybackProgress extends JPanel {
             g.fillRect(start, 0, end - start, getHeight());
         }
 
+        if (graphWidth != getWidth()
+                || graphHeight != getHeight() - TOP_MARGIN)
+            createDepthGraph();
         if (depthGraph != null) {
             Graphics2D g2 = (Graphics2D) g;
             g2.drawImage(depthGraph, 0, TOP_MARGIN, null);
@@ -115,34 +171,59 @@ public class PlaybackProgress extends JPanel {
         if ((playback = playbackPanel.getPlayback()) != null) {
             g.setColor(CURRENT_POS);
             double currentPost = playback.getCurrentPosPercent();
-            g.fillRect((int) (getWidth() * currentPost) - 1, 0, 2, getHeight());
+            g.fillRect(toX(currentPost) - 1, 0, 2, getHeight());
         }
     }
 
     public void resetPlaybackRange() {
-        mouseHandler.actionPerformed(new ActionEvent(this, 0, ""));
+        mouseHandler.clearSelection();
     }
 
     public double getPlaybackStart() {
         if (getMouseDragStart() == null)
             return 0d;
 
-        double start = Math.min(getMouseDragStart().getX(), getMouseDragEnd()
-                .getX())
-                / getWidth();
-        start = start < 0 ? 0d : start;
-        return start;
+        return toPosition(Math.min(getMouseDragStart().getX(),
+                getMouseDragEnd().getX()));
     }
 
     public double getPlaybackEnd() {
         if (getMouseDragEnd() == null)
             return 1d;
 
-        double end = Math.max(getMouseDragStart().getX(), getMouseDragEnd()
-                .getX())
-                / getWidth();
-        end = end > 1 ? 1d : end;
-        return end;
+        return toPosition(Math.max(getMouseDragStart().getX(),
+                getMouseDragEnd().getX()));
+    }
+
+    /**
+     * Shows only the selected traces, the depth graph is refined from the
+     * pyramid without reading the traces again.
+     */
+    private void zoomToSelection() {
+        double start = getPlaybackStart();
+        double end = getPlaybackEnd();
+        if (end <= start)
+            return;
+        viewStart = start;
+        viewEnd = end;
+        mouseHandler.mouseDragStart = new Point(0, 0);
+        mouseHandler.mouseDragEnd = new Point(getWidth(), 0);
+        createDepthGraph();
+        repaint();
+    }
+
+    private void resetZoom() {
+        boolean selected = getMouseDragStart() != null;
+        double selectionStart = getPlaybackStart();
+        double selectionEnd = getPlaybackEnd();
+        viewStart = 0d;
+        viewEnd = 1d;
+        if (selected) {
+            mouseHandler.mouseDragStart = new Point(toX(selectionStart), 0);
+            mouseHandler.mouseDragEnd = new Point(toX(selectionEnd), 0);
+        }
+        createDepthGraph();
+        repaint();
     }
 
     private void updatePlaybackRange() {
@@ -157,15 +238,58 @@ public class PlaybackProgress extends JPanel {
         Playback playback;
         if ((playback = playbackPanel.getPlayback()) != null) {
             UIGraphicsHelper.getInstance().resetConnectionsAndRepaintGraph();
-            double pos = mouseHandler.mousePressCoord.getX() / getWidth();
-            // Bit defensive ;)
-            pos = pos < 0 ? 0 : pos;
-            pos = pos > 1 ? 1 : pos;
-            playback.setCurrentPos(pos);
+            playback.setCurrentPos(toPosition(mouseHandler.mousePressCoord
+                    .getX()), Settings.getInstance().getCachedTracesNo());
+        }
+    }
+
+    /**
+     * Plays only the given threads, all if null, and restores the graph with
+     * their traces.
+     */
+    private void updatePlayedThreads(long[] threadIds) {
+        Playback playback;
+        if ((playback = playbackPanel.getPlayback()) != null) {
+            playback.setThreads(threadIds, Settings.getInstance()
+                    .getCachedTracesNo());
         }
     }
 
+    /**
+     * @return ids of played threads with the given one added or removed,
+     *         null for all threads
+     */
+    private long[] togglePlayedThread(long threadId) {
+        Playback playback = playbackPanel.getPlayback();
+        long[] all = playback.getThreadIndex().getThreadIds();
+        long[] played = playback.getThreads();
+        if (played == null)
+            played = all;
+
+        long[] toggled;
+        int i = Arrays.binarySearch(played, threadId);
+        if (i >= 0) {
+            // At least one thread is always played
+            if (played.length == 1)
+                return played;
+            toggled = new long[played.length - 1];
+            System.arraycopy(played, 0, toggled, 0, i);
+            System.arraycopy(played, i + 1, toggled, i, toggled.length - i);
+        } else {
+            toggled = Arrays.copyOf(played, played.length + 1);
+            toggled[played.length] = threadId;
+            Arrays.sort(toggled);
+        }
+        return toggled.length == all.length ? null : toggled;
+    }
+
     private class MouseHandler extends MouseAdapter implements ActionListener {
+        private static final String CLEAR = "clear";
+        private static final String ZOOM_IN = "zoomIn";
+        private static final String ZOOM_RESET = "zoomReset";
+        private static final String ALL_THREADS = "allThreads";
+        private static final String THREAD = "thread ";
+
         private boolean dragged;
         private volatile Point mousePressCoord = new Point();
         private Point mouseDragStart;
@@ -187,10 +311,12 @@ public class PlaybackProgress extends JPanel {
             if (!dragged) {
                 if (e.getButton() == MouseEvent.BUTTON3) {
                     JPopupMenu menu = new JPopupMenu();
-                    JMenuItem item = new JMenuItem(
-                            Messages.get("clear.selection"));
-                    item.addActionListener(this);
-                    menu.add(item);
+                    addMenuItem(menu, "clear.selection", CLEAR);
+                    if (mouseDragStart != null)
+                        addMenuItem(menu, "zoom.in", ZOOM_IN);
+                    if (viewStart > 0d || viewEnd < 1d)
+                        addMenuItem(menu, "zoom.reset", ZOOM_RESET);
+                    addThreadsMenu(menu);
                     menu.show(e.getComponent(), e.getX(), e.getY());
                 } else {
                     updateCurrentPosition();
@@ -201,6 +327,42 @@ public class PlaybackProgress extends JPanel {
             }
         }
 
+        private void addMenuItem(JPopupMenu menu, String key, String command) {
+            JMenuItem item = new JMenuItem(Messages.get(key));
+            item.setActionCommand(command);
+            item.addActionListener(this);
+            menu.add(item);
+        }
+
+        private void addThreadsMenu(JPopupMenu menu) {
+            Playback playback = playbackPanel.getPlayback();
+            if (playback == null)
+                return;
+            ThreadIndex index = playback.getThreadIndex();
+            if (index == null || index.getThreadCount() < 2)
+                return;
+
+            long[] played = playback.getThreads();
+            JMenu threadsMenu = new JMenu(Messages.get("threads"));
+            JCheckBoxMenuItem all = new JCheckBoxMenuItem(
+                    Messages.get("threads.all"), played == null);
+            all.setActionCommand(ALL_THREADS);
+            all.addActionListener(this);
+            threadsMenu.add(all);
+            threadsMenu.addSeparator();
+            for (long threadId : index.getThreadIds()) {
+                JCheckBoxMenuItem item = new JCheckBoxMenuItem(
+                        Messages.format("threads.thread", threadId,
+                                index.getEventCount(threadId)),
+                        played == null
+                                || Arrays.binarySearch(played, threadId) >= 0);
+                item.setActionCommand(THREAD + threadId);
+                item.addActionListener(this);
+                threadsMenu.add(item);
+            }
+            menu.add(threadsMenu);
+        }
+
         @Override
         public void mousePressed(MouseEvent e) {
             dragged = false;
@@ -209,6 +371,21 @@ public class PlaybackProgress extends JPanel {
 
         @Override
         public void actionPerformed(ActionEvent e) {
+            String command = e.getActionCommand();
+            if (ZOOM_IN.equals(command))
+                zoomToSelection();
+            else if (ZOOM_RESET.equals(command))
+                resetZoom();
+            else if (ALL_THREADS.equals(command))
+                updatePlayedThreads(null);
+            else if (command.startsWith(THREAD))
+                updatePlayedThreads(togglePlayedThread(Long.parseLong(command
+                        .substring(THREAD.length()))));
+            else
+                clearSelection();
+        }
+
+        private void clearSelection() {
             mouseDragStart = null;
             mouseDragEnd = null;
             updatePlaybackRange();
@@ -0,0 +1,207 @@
+/*
+ * FrameExporter.java
+ *
+ * Copyright (C) 2011-2012, Artur Jonkisz, <travis.source@gmail.com>
+ *
+ * This file is part of TraVis.
+ * See https://github.com/ajonkisz/TraVis for more info.
+ *
+ * TraVis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TraVis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with TraVis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package travis.view.project.graph;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.imageio.ImageIO;
+
+import travis.model.script.RestoredTraces;
+import travis.model.script.TraceCheckpoints;
+import travis.model.script.TraceFile;
+import travis.view.Util;
+import travis.view.project.graph.connection.ConnectionPainter;
+
+/**
+ * Renders the graph of a range of traces offscreen and writes the frames as
+ * numbered PNG images. The traces shown by a frame are restored from the
+ * closest checkpoint, so frames are rendered in parallel, every worker with
+ * its own image, connection painter and reader. All frames are drawn with
+ * the layout published when the export starts.
+ */
+public class FrameExporter {
+
+    private static final String FRAME_FILE = "frame%06d.png";
+
+    private final TreeRepresentation treeRep;
+    private final TraceFile traceFile;
+    private final TraceCheckpoints checkpoints;
+    private final long[] threadIds;
+
+    /**
+     * @param threadIds sorted ids of the drawn threads or null for all
+     */
+    public FrameExporter(TreeRepresentation treeRep, TraceFile traceFile,
+                         TraceCheckpoints checkpoints, long[] threadIds) {
+        this.treeRep = treeRep;
+        this.traceFile = traceFile;
+        this.checkpoints = checkpoints;
+        this.threadIds = threadIds;
+    }
+
+    /**
+     * Writes a frame for every 1 / fps seconds of playback of the traces
+     * between the ordinals.
+     *
+     * @param speed    factor of recorded time to playback time
+     * @param tracesNo number of traces before the end of a frame to draw
+     * @return number of written frames
+     */
+    public int export(long from, long to, double fps, double speed,
+                      int tracesNo, File dir) throws IOException {
+        TreeRepresentation.Layout layout = treeRep.getLayout();
+        BufferedImage tree = layout.getImage();
+        if (tree == null)
+            throw new IllegalStateException("Graph not laid out");
+        TreeRepresentation fixedRep = new TreeRepresentation(layout);
+        long[] frameEnds = findFrameEnds(from, to,
+                Math.max(1, (long) (1000000000d / fps * speed)));
+        int workers = Math.min(Runtime.getRuntime().availableProcessors(),
+                frameEnds.length);
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        try {
+            List<Future<Void>> results = new ArrayList<Future<Void>>(workers);
+            for (int i = 0; i < workers; i++) {
+                results.add(pool.submit(new FrameWorker(fixedRep, frameEnds,
+                        i, workers, tracesNo, dir)));
+            }
+            for (Future<Void> result : results)
+                result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new IOException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        return frameEnds.length;
+    }
+
+    /**
+     * Frame k shows the traces recorded up to frameTime * k after the first
+     * trace of the range, as playback publishes them.
+     *
+     * @return ordinal following the last trace of every frame
+     */
+    private long[] findFrameEnds(long from, long to, long frameTime)
+            throws IOException {
+        long[] ends = new long[16];
+        int count = 0;
+        TraceFile.Reader reader = traceFile.openReader(from);
+        try {
+            boolean started = false;
+            long frameEnd = 0;
+            while (reader.getPosition() < to && reader.next()) {
+                long time = reader.getCallTime();
+                if (!started) {
+                    started = true;
+                    frameEnd = time;
+                }
+                while (time > frameEnd) {
+                    if (count == ends.length)
+                        ends = Arrays.copyOf(ends, count * 2);
+                    ends[count++] = reader.getPosition() - 1;
+                    frameEnd += frameTime;
+                }
+            }
+            ends = Arrays.copyOf(ends, count + 1);
+            ends[count] = reader.getPosition();
+            return ends;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Renders every workers-th frame starting at the first one.
+     */
+    private class FrameWorker implements Callable<Void> {
+        private final TreeRepresentation fixedRep;
+        private final long[] frameEnds;
+        private final int first;
+        private final int workers;
+        private final int tracesNo;
+        private final File dir;
+
+        FrameWorker(TreeRepresentation fixedRep, long[] frameEnds, int first,
+                    int workers, int tracesNo, File dir) {
+            this.fixedRep = fixedRep;
+            this.frameEnds = frameEnds;
+            this.first = first;
+            this.workers = workers;
+            this.tracesNo = tracesNo;
+            this.dir = dir;
+        }
+
+        @Override
+        public Void call() throws IOException {
+            BufferedImage tree = fixedRep.getImage();
+            BufferedImage img = new BufferedImage(tree.getWidth(),
+                    tree.getHeight(), BufferedImage.TYPE_INT_ARGB);
+            ConnectionPainter painter = new ConnectionPainter(fixedRep);
+            TraceFile.Reader reader = traceFile.openReader(0);
+            try {
+                for (int i = first; i < frameEnds.length; i += workers) {
+                    if (Thread.interrupted())
+                        throw new InterruptedIOException();
+                    RestoredTraces restored = checkpoints.restore(reader,
+                            frameEnds[i], tracesNo, threadIds);
+                    painter.reset(restored.getOpenCalls());
+                    painter.lineTo(restored.getTraces());
+
+                    Graphics2D g2 = img.createGraphics();
+                    g2.setRenderingHints(Util.HINTS);
+                    g2.setColor(Color.WHITE);
+                    g2.fillRect(0, 0, img.getWidth(), img.getHeight());
+                    g2.drawImage(tree, null, 0, 0);
+                    painter.paint(g2);
+                    g2.dispose();
+
+                    ImageIO.write(img, "png",
+                            new File(dir, String.format(FRAME_FILE, i)));
+                }
+                return null;
+            } finally {
+                reader.close();
+            }
+        }
+    }
+
+}
@@ -26,21 +26,21 @@ import java.awt.Graphics;
 import java.awt.Graphics2D;
 import javax.swing.JPanel;
 
-import travis.view.Util;
+import travis.controller.UIHelper;
 import travis.view.project.graph.connection.ConnectionPainter;
-import travis.view.settings.Settings;
+import travis.view.project.graph.connection.ExecutionPoint;
 
+/**
+ * Shows frames of the graph rendered by its renderer thread.
+ */
 public class GraphPanel extends JPanel {
 
     private static final long serialVersionUID = -2719889219523140214L;
-    private static final int MARGIN_X = 5;
-    private static final int MARGIN_Y = 5;
 
     private final TreeRepresentation treeRep;
     private final ConnectionPainter connectPainter;
+    private final GraphRenderer renderer;
 
-    private int alignX;
-    private int alignY;
     private Dimension oldD;
 
     public GraphPanel() {
@@ -49,6 +49,8 @@ public class GraphPanel extends JPanel {
 
         treeRep = new TreeRepresentation();
         connectPainter = new ConnectionPainter(treeRep);
+        renderer = new GraphRenderer(this, treeRep, connectPainter);
+        renderer.start();
     }
 
     public TreeRepresentation getTreeRepRepresentation() {
@@ -59,42 +61,41 @@ public class GraphPanel extends JPanel {
         return connectPainter;
     }
 
+    /**
+     * Lays out methods again and renders a new frame.
+     */
     public void updateImage() {
+        oldD = getSize();
+        renderer.requestLayout(getWidth(), getHeight(),
+                treeRep.selectComponents());
+    }
+
+    /**
+     * Renders a new frame with the latest connections.
+     */
+    public void renderFrame() {
         connectPainter.setNeedRepaint(true);
-        int radius = Math.min(getWidth() - MARGIN_X * 2, getHeight() - MARGIN_Y
-                * 2) / 2;
-        treeRep.createImage(radius, Settings.getInstance().getGraphRotate());
-        repaint();
+        renderer.requestFrame();
     }
 
     @Override
     public void paint(Graphics g) {
         super.paint(g);
-        if (oldD == null || !oldD.equals(getSize())) {
-            oldD = getSize();
-            int diameter = Math.min(getWidth() - MARGIN_X * 2, getHeight()
-                    - MARGIN_Y * 2);
-            alignX = (getWidth() - diameter) / 2;
-            alignY = (getHeight() - diameter) / 2;
+        if (oldD == null || !oldD.equals(getSize()))
             updateImage();
-        }
-
-        Graphics2D g2 = (Graphics2D) g;
-        g2.setRenderingHints(Util.HINTS);
-        g2.translate(alignX, alignY);
-
-        g2.drawImage(treeRep.getImage(), null, 0, 0);
 
-        g2.drawImage(connectPainter.getImage(getWidth(), getHeight()), null, 0,
-                0);
+        ExecutionPoint ep = renderer.drawFrame((Graphics2D) g);
+        if (ep != null)
+            UIHelper.getInstance().getTooltip()
+                    .displayExecutionPointTooltip(ep);
     }
 
     public int getAlignX() {
-        return alignX;
+        return renderer.getAlignX();
     }
 
     public int getAlignY() {
-        return alignY;
+        return renderer.getAlignY();
     }
 
 }
@@ -0,0 +1,215 @@
+/*
+ * GraphRenderer.java
+ *
+ * Copyright (C) 2011-2012, Artur Jonkisz, <travis.source@gmail.com>
+ *
+ * This file is part of TraVis.
+ * See https://github.com/ajonkisz/TraVis for more info.
+ *
+ * TraVis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TraVis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with TraVis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package travis.view.project.graph;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import travis.view.Util;
+import travis.view.project.graph.connection.ConnectionPainter;
+import travis.view.project.graph.connection.ExecutionPoint;
+import travis.view.settings.Settings;
+
+/**
+ * Renders frames of the graph away from the event dispatch thread. A frame
+ * is drawn into the back buffer, which then becomes the front one shown by
+ * the panel. Requests made while a frame is rendered are merged, so frames
+ * are skipped when rendering falls behind. When drawing connections takes
+ * longer than the render budget, fewer of them are drawn.
+ */
+class GraphRenderer extends Thread {
+
+    private static final int MARGIN_X = 5;
+    private static final int MARGIN_Y = 5;
+    private static final int MIN_CURVES = 10;
+
+    private final GraphPanel panel;
+    private final TreeRepresentation treeRep;
+    private final ConnectionPainter connectPainter;
+    private final Object bufferLock;
+
+    private boolean frameRequested;
+    private TreeRepresentation.Layout requestedLayout;
+    private int requestedWidth;
+    private int requestedHeight;
+
+    private int alignX;
+    private int alignY;
+    private int curveLimit;
+
+    private BufferedImage front;
+    private BufferedImage back;
+    private int frontAlignX;
+    private int frontAlignY;
+    private ExecutionPoint frontExecPoint;
+
+    GraphRenderer(GraphPanel panel, TreeRepresentation treeRep,
+                  ConnectionPainter connectPainter) {
+        super("TraVis Graph Renderer");
+        this.panel = panel;
+        this.treeRep = treeRep;
+        this.connectPainter = connectPainter;
+        bufferLock = new Object();
+        curveLimit = Integer.MAX_VALUE;
+        setDaemon(true);
+    }
+
+    public synchronized void requestFrame() {
+        frameRequested = true;
+        notifyAll();
+    }
+
+    /**
+     * Requests a frame with methods laid out again for the size.
+     *
+     * @param selected components selected on the event dispatch thread
+     */
+    public synchronized void requestLayout(int width, int height,
+                                           TreeRepresentation.Layout selected) {
+        requestedWidth = width;
+        requestedHeight = height;
+        requestedLayout = selected;
+        frameRequested = true;
+        notifyAll();
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            TreeRepresentation.Layout layout;
+            int width;
+            int height;
+            try {
+                synchronized (this) {
+                    while (!frameRequested || requestedWidth <= 0
+                            || requestedHeight <= 0)
+                        wait();
+                    frameRequested = false;
+                    layout = requestedLayout;
+                    requestedLayout = null;
+                    width = requestedWidth;
+                    height = requestedHeight;
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                render(layout, width, height);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+            panel.repaint();
+        }
+    }
+
+    private void render(TreeRepresentation.Layout layout, int width,
+                        int height) {
+        if (layout != null) {
+            int diameter = Math.min(width - MARGIN_X * 2, height - MARGIN_Y
+                    * 2);
+            alignX = (width - diameter) / 2;
+            alignY = (height - diameter) / 2;
+            connectPainter.setNeedRepaint(true);
+            treeRep.createImage(layout, diameter / 2, Settings.getInstance()
+                    .getGraphRotate());
+        }
+
+        connectPainter.setCurveLimit(curveLimit);
+        long start = System.nanoTime();
+        BufferedImage connections = connectPainter.getImage(width, height);
+        updateCurveLimit(System.nanoTime() - start);
+        ExecutionPoint ep = connectPainter.getExecutionPoint();
+
+        BufferedImage img = back;
+        if (img == null || img.getWidth() != width
+                || img.getHeight() != height)
+            img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2 = img.createGraphics();
+        Color background = panel.getBackground();
+        g2.setColor(background == null ? Color.WHITE : background);
+        g2.fillRect(0, 0, width, height);
+        g2.setRenderingHints(Util.HINTS);
+        g2.translate(alignX, alignY);
+        BufferedImage tree = treeRep.getImage();
+        if (tree != null)
+            g2.drawImage(tree, null, 0, 0);
+        g2.drawImage(connections, null, 0, 0);
+        ep.draw(g2);
+        g2.dispose();
+
+        synchronized (bufferLock) {
+            back = front;
+            front = img;
+            frontAlignX = alignX;
+            frontAlignY = alignY;
+            frontExecPoint = ep;
+        }
+    }
+
+    /**
+     * Lowers the number of drawn curves in proportion when drawing took
+     * longer than the budget and raises it again when drawing takes less
+     * than half of it.
+     */
+    private void updateCurveLimit(long drawTime) {
+        long budget = Settings.getInstance().getRenderBudget() * 1000000L;
+        int maxCurves = Settings.getInstance().getMaxCurvesNo();
+        if (budget == 0) {
+            curveLimit = Integer.MAX_VALUE;
+        } else if (drawTime > budget) {
+            int drawn = Math.min(curveLimit, maxCurves);
+            curveLimit = Math.max(MIN_CURVES,
+                    (int) (drawn * ((double) budget / drawTime)));
+        } else if (drawTime < budget / 2 && curveLimit < maxCurves) {
+            curveLimit = (int) Math.min(maxCurves,
+                    curveLimit + Math.max(1L, curveLimit / 4));
+        }
+    }
+
+    /**
+     * Draws the latest rendered frame.
+     *
+     * @return execution point of the frame or null if there is none yet
+     */
+    public ExecutionPoint drawFrame(Graphics2D g2) {
+        synchronized (bufferLock) {
+            if (front == null)
+                return null;
+            g2.drawImage(front, null, 0, 0);
+            return frontExecPoint;
+        }
+    }
+
+    public int getAlignX() {
+        synchronized (bufferLock) {
+            return frontAlignX;
+        }
+    }
+
+    public int getAlignY() {
+        synchronized (bufferLock) {
+            return frontAlignY;
+        }
+    }
+
+}
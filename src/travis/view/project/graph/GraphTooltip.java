@@ -48,7 +48,7 @@ public class GraphTooltip extends JPanel {
     private static final long serialVersionUID = 6214722087448317356L;
 
     private static final int MAX_CURVE_DIST = 2;
-    private static final int MAX_CURVES_PER_SEC_FOR_PLAYBACK_TOOLTIP = 3;
+    private static final double MAX_PLAYBACK_SPEED_FOR_TOOLTIP = 0.01;
     private static final Font FONT = new Font("Monospaced", Font.PLAIN, 12);
     private static final Color BACKGROUND = new Color(1f, 1f, 0.75f, 0.85f);
     private static final Color BACKGROUND_ALTERNATE = new Color(0.75f, 1f, 1f,
@@ -217,7 +217,7 @@ public class GraphTooltip extends JPanel {
     public void displayExecutionPointTooltip(ExecutionPoint ep) {
         UIHelper helper = UIHelper.getInstance();
         if (helper.getMode() == UIHelper.Mode.PLAYBACK
-                && Settings.getInstance().getCurvesPerSec() <= MAX_CURVES_PER_SEC_FOR_PLAYBACK_TOOLTIP) {
+                && Settings.getInstance().getPlaybackSpeed() <= MAX_PLAYBACK_SPEED_FOR_TOOLTIP) {
             playbackExecutionPoint = ep;
         } else {
             playbackExecutionPoint = null;
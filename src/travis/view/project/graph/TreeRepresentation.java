@@ -31,6 +31,7 @@ import java.util.Enumeration;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import javax.swing.SwingUtilities;
 
 import travis.controller.UIHelper;
 import travis.model.project.structure.StructClass;
@@ -51,10 +52,7 @@ public class TreeRepresentation {
 
     private final Settings sets = Settings.getInstance();
 
-    private volatile BufferedImage image;
-
-    private final Set<ComponentData> roots;
-    private ComponentData[] methods;
+    private volatile Layout layout;
 
     private Ellipse2D methodCircle;
     private Ellipse2D latestInnerCircle;
@@ -63,42 +61,63 @@ public class TreeRepresentation {
     private int maxHeight;
 
     public TreeRepresentation() {
-        this.roots = new TreeSet<ComponentData>();
+        layout = new Layout(new TreeSet<ComponentData>(),
+                new ComponentData[]{}, null, 0);
     }
 
-    public ComponentData[] getMethods() {
-        return methods == null ? new ComponentData[]{} : methods;
+    /**
+     * @param layout published layout the representation keeps, used to draw
+     *               away from the graph while the graph is laid out again
+     */
+    public TreeRepresentation(Layout layout) {
+        this.layout = layout;
     }
 
-    private void configureRepresentaion() {
-        ProjectTree tree = UIHelper.getInstance().getProjectTree();
+    /**
+     * @return latest published layout
+     */
+    public Layout getLayout() {
+        return layout;
+    }
 
-        if (!tree.isChanged())
-            return;
+    public ComponentData[] getMethods() {
+        return layout.methods;
+    }
 
+    /**
+     * Walks the project tree, so it has to be called on the event dispatch
+     * thread. Components are created anew with every call as laying them
+     * out changes them.
+     *
+     * @return components selected in the project tree, not laid out yet
+     */
+    public Layout selectComponents() {
+        ProjectTree tree = UIHelper.getInstance().getProjectTree();
         tree.consumeChenge();
-        roots.clear();
 
+        Set<ComponentData> roots = new TreeSet<ComponentData>();
         ProjectTreeNode root = tree.getRootNode();
         if (root == null) {
-            return;
+            return new Layout(roots, new ComponentData[]{}, null, 0);
         }
-        findSelectedRoots(root);
+        findSelectedRoots(tree, root, roots);
 
         Map<StructMethod, Integer> structMethods = tree.getStructMethods();
+        ComponentData[] methods;
         if (structMethods == null) {
             methods = new ComponentData[]{};
         } else {
             methods = new ComponentData[structMethods.size()];
         }
         for (ComponentData cd : roots) {
-            populateRoots(cd, structMethods);
+            populateRoots(tree, cd, structMethods, methods);
         }
+        return new Layout(roots, methods, null, 0);
     }
 
-    private void populateRoots(ComponentData parent,
-                               Map<StructMethod, Integer> structMethods) {
-        ProjectTree tree = UIHelper.getInstance().getProjectTree();
+    private void populateRoots(ProjectTree tree, ComponentData parent,
+                               Map<StructMethod, Integer> structMethods,
+                               ComponentData[] methods) {
         ProjectTreeNode node = parent.getNode();
         Enumeration<ProjectTreeNode> children = node.children();
 
@@ -120,13 +139,13 @@ public class TreeRepresentation {
                     int i = structMethods.get(child.getUserObject());
                     methods[i] = newChild;
                 }
-                populateRoots(newChild, structMethods);
+                populateRoots(tree, newChild, structMethods, methods);
             }
         }
     }
 
-    private void findSelectedRoots(ProjectTreeNode root) {
-        ProjectTree tree = UIHelper.getInstance().getProjectTree();
+    private void findSelectedRoots(ProjectTree tree, ProjectTreeNode root,
+                                   Set<ComponentData> roots) {
         Enumeration<ProjectTreeNode> children = root.children();
 
         while (children.hasMoreElements()) {
@@ -143,16 +162,33 @@ public class TreeRepresentation {
             while (children.hasMoreElements()) {
                 ProjectTreeNode child = children.nextElement();
                 if (tree.isSelected(child))
-                    findSelectedRoots(child);
+                    findSelectedRoots(tree, child, roots);
             }
         }
     }
 
     public BufferedImage getImage() {
-        return image;
+        return layout.image;
     }
 
-    public void createImage(int radius, double rotate) {
+    /**
+     * @return number of times methods were laid out, their control points
+     *         change with every layout
+     */
+    public int getLayoutVersion() {
+        return layout.version;
+    }
+
+    /**
+     * Lays out the selected components and publishes them together with
+     * the image.
+     *
+     * @param selected components returned by {@link #selectComponents()},
+     *                 they must not be laid out more than once
+     */
+    public void createImage(Layout selected, int radius, double rotate) {
+        Set<ComponentData> roots = selected.roots;
+        ComponentData[] methods = selected.methods;
         maxHeight = radius;
         latestInnerCircle = null;
 
@@ -161,23 +197,30 @@ public class TreeRepresentation {
         Graphics2D g2 = (Graphics2D) newGraph.getGraphics();
         g2.setRenderingHints(Util.HINTS);
 
-        configureRepresentaion();
         if (roots.size() == 0) {
             g2.dispose();
-            image = newGraph;
+            publish(selected, newGraph);
             return;
         }
 
         Ellipse2D circle = new Ellipse2D.Double(1, 1, radius * 2, radius * 2);
-        setMethodCircle(circle);
+        setMethodCircle(circle, roots);
         int totalMethods = 0;
         int depth = 0;
         for (ComponentData cd : roots) {
             depth = Math.max(depth, cd.getMaximumPackageDepth());
             totalMethods += cd.getTotalSelectedMethods();
         }
-        if (sets.isPackageEnabled() != depth > 0)
-            sets.setPackageEnabled(depth > 0);
+        if (sets.isPackageEnabled() != depth > 0) {
+            final boolean packageEnabled = depth > 0;
+            // Observers of settings update Swing components
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    sets.setPackageEnabled(packageEnabled);
+                }
+            });
+        }
 
         drawData(circle, rotate, g2, roots, 0, totalMethods);
 
@@ -188,7 +231,7 @@ public class TreeRepresentation {
         if (!sets.isDrawingStruct(Settings.STRUCT_PACKAGE) || hiddenAll)
             innerCirclesNo -= 1;
         createInnerCircles(innerCirclesNo);
-        createInnerLayout(innerCirclesNo);
+        createInnerLayout(innerCirclesNo, methods);
 
         boolean drawInnerLayout = sets.isDrawingInnerLayout();
         if (drawInnerLayout) {
@@ -197,7 +240,7 @@ public class TreeRepresentation {
                 g2.draw(c);
             }
             g2.setPaint(Color.BLUE);
-            drawInnerLayout(g2);
+            drawInnerLayout(g2, methods);
             boolean drawInnerStruct = false;
             if (drawInnerStruct) {
                 for (ComponentData cd : roots) {
@@ -207,7 +250,12 @@ public class TreeRepresentation {
         }
 
         g2.dispose();
-        image = newGraph;
+        publish(selected, newGraph);
+    }
+
+    private void publish(Layout selected, BufferedImage image) {
+        layout = new Layout(selected.roots, selected.methods, image,
+                layout.version + 1);
     }
 
     private void createInnerCircles(int innerCirclesNo) {
@@ -224,7 +272,8 @@ public class TreeRepresentation {
         }
     }
 
-    private void createInnerLayout(int innerCirclesNo) {
+    private void createInnerLayout(int innerCirclesNo,
+                                   ComponentData[] methods) {
         for (ComponentData cd : methods) {
             // This one could be skipped as the method wasn't selected.
             if (cd == null) {
@@ -290,7 +339,7 @@ public class TreeRepresentation {
         }
     }
 
-    private void drawInnerLayout(Graphics2D g2) {
+    private void drawInnerLayout(Graphics2D g2, ComponentData[] methods) {
         for (ComponentData cd : methods) {
             // This one could be skipped as the method wasn't selected.
             if (cd == null)
@@ -406,7 +455,7 @@ public class TreeRepresentation {
         return height;
     }
 
-    private void setMethodCircle(Ellipse2D circle) {
+    private void setMethodCircle(Ellipse2D circle, Set<ComponentData> roots) {
         double diff = 0;
 
         if (sets.isDrawingStruct(Settings.STRUCT_PACKAGE)) {
@@ -456,7 +505,7 @@ public class TreeRepresentation {
     }
 
     public ComponentData getElementForCoord(Point p) {
-        return getElementForCoord(p, roots);
+        return getElementForCoord(p, layout.roots);
     }
 
     private ComponentData getElementForCoord(Point p,
@@ -474,4 +523,32 @@ public class TreeRepresentation {
         return null;
     }
 
+    /**
+     * Components with the image they were drawn into. Published layouts
+     * are not changed anymore.
+     */
+    public static class Layout {
+
+        private final Set<ComponentData> roots;
+        private final ComponentData[] methods;
+        private final BufferedImage image;
+        private final int version;
+
+        private Layout(Set<ComponentData> roots, ComponentData[] methods,
+                       BufferedImage image, int version) {
+            this.roots = roots;
+            this.methods = methods;
+            this.image = image;
+            this.version = version;
+        }
+
+        /**
+         * @return image of the layout or null if not laid out yet
+         */
+        public BufferedImage getImage() {
+            return image;
+        }
+
+    }
+
 }
@@ -0,0 +1,332 @@
+/*
+ * ConnectionModel.java
+ *
+ * Copyright (C) 2011-2012, Artur Jonkisz, <travis.source@gmail.com>
+ *
+ * This file is part of TraVis.
+ * See https://github.com/ajonkisz/TraVis for more info.
+ *
+ * TraVis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TraVis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with TraVis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package travis.view.project.graph.connection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import travis.model.script.TraceBuffer;
+import travis.model.script.TraceInfo;
+import travis.view.project.graph.ComponentData;
+import travis.view.project.graph.ControlPoint;
+import travis.view.project.graph.TreeRepresentation;
+
+/**
+ * Connections from calls to the calls they make, updated with every trace
+ * added to the buffer. Every thread is followed separately with its own
+ * stack of open calls. Each connection is kept once, ordered by its latest
+ * call, and dropped when that call leaves the buffer.
+ */
+class ConnectionModel {
+
+    private final TreeRepresentation treeRep;
+    private final Map<Long, ThreadStack> stacks;
+    private final Map<EdgeKey, Edge> edges;
+    private final OrdinalQueue calls;
+    private Edge oldest;
+    private Edge newest;
+    private ThreadStack lastStack;
+    private boolean finishedOnReturn;
+    private int modCount;
+
+    ConnectionModel(TreeRepresentation treeRep) {
+        this.treeRep = treeRep;
+        stacks = new HashMap<Long, ThreadStack>();
+        edges = new HashMap<EdgeKey, Edge>();
+        calls = new OrdinalQueue();
+    }
+
+    void clear() {
+        stacks.clear();
+        edges.clear();
+        calls.clear();
+        oldest = null;
+        newest = null;
+        lastStack = null;
+        finishedOnReturn = false;
+        modCount++;
+    }
+
+    /**
+     * Follows the traces of the buffer from the given ordinal and drops
+     * connections whose latest call is no longer buffered.
+     *
+     * @return ordinal following the last followed trace
+     */
+    long update(TraceBuffer traces, long from) {
+        ComponentData[] methods = treeRep.getMethods();
+        long end = traces.getEnd();
+        TraceBuffer.Cursor it = traces.cursor(from);
+        while (it.next() && it.getOrdinal() < end) {
+            ComponentData cd = methods[it.getMethodId()];
+
+            // cd (method) is null only when not selected / visible
+            if (cd == null)
+                continue;
+            finishedOnReturn = true;
+            ThreadStack stack = getStack(it.getThreadId());
+            lastStack = stack;
+
+            if (it.isReturnCall()) {
+                stack.pop();
+                continue;
+            }
+            if (!stack.isEmpty()) {
+                finishedOnReturn = false;
+                connect(methods, stack, it);
+            }
+            stack.push(it.getMethodId(), it.getCallTime());
+        }
+        removeBefore(traces.getStart());
+        return end;
+    }
+
+    /**
+     * Places calls opened before the followed traces on the stacks of their
+     * threads, no connections are made between them.
+     *
+     * @param openCalls call traces, thread by thread starting from the
+     *                  outermost call
+     */
+    void addOpenCalls(TraceBuffer openCalls) {
+        ComponentData[] methods = treeRep.getMethods();
+        TraceBuffer.Cursor it = openCalls.cursor();
+        while (it.next()) {
+            if (methods[it.getMethodId()] == null)
+                continue;
+            getStack(it.getThreadId()).push(it.getMethodId(),
+                    it.getCallTime());
+        }
+    }
+
+    private ThreadStack getStack(long threadId) {
+        ThreadStack stack = stacks.get(threadId);
+        if (stack == null) {
+            stack = new ThreadStack(threadId);
+            stacks.put(threadId, stack);
+        }
+        return stack;
+    }
+
+    private void connect(ComponentData[] methods, ThreadStack stack,
+                         TraceBuffer.Cursor it) {
+        ControlPoint cpStart = methods[stack.peekMethodId()].getControlPoint();
+        ControlPoint cpEnd = methods[it.getMethodId()].getControlPoint();
+        EdgeKey key = new EdgeKey(cpStart, cpEnd);
+        Edge edge = edges.get(key);
+        if (edge == null) {
+            // TODO Deal with recursive calls (path.length == 1).
+            edge = new Edge(key, new GraphBspline(cpStart, cpEnd));
+            edges.put(key, edge);
+        } else {
+            unlink(edge);
+        }
+        edge.spline.setTraces(new TraceInfo(stack.peekMethodId(), false,
+                stack.peekCallTime(), stack.threadId), new TraceInfo(
+                it.getMethodId(), false, it.getCallTime(), it.getThreadId()));
+        edge.ordinal = it.getOrdinal();
+        append(edge);
+        calls.add(it.getOrdinal());
+        modCount++;
+    }
+
+    private void removeBefore(long ordinal) {
+        calls.removeBefore(ordinal);
+        while (oldest != null && oldest.ordinal < ordinal) {
+            edges.remove(oldest.key);
+            unlink(oldest);
+            modCount++;
+        }
+    }
+
+    private void append(Edge edge) {
+        edge.previous = newest;
+        edge.next = null;
+        if (newest == null)
+            oldest = edge;
+        else
+            newest.next = edge;
+        newest = edge;
+    }
+
+    private void unlink(Edge edge) {
+        if (edge.previous == null)
+            oldest = edge.next;
+        else
+            edge.previous.next = edge.next;
+        if (edge.next == null)
+            newest = edge.previous;
+        else
+            edge.next.previous = edge.previous;
+    }
+
+    /**
+     * @param unique true to take the latest connections, false to take the
+     *               connections made by the latest calls
+     * @return at most max connections, the newest last
+     */
+    List<GraphBspline> getConnections(int max, boolean unique) {
+        long first = unique || calls.size() <= max ? Long.MIN_VALUE : calls
+                .get(calls.size() - max);
+        List<GraphBspline> result = new ArrayList<GraphBspline>();
+        for (Edge e = newest; e != null && result.size() < max
+                && e.ordinal >= first; e = e.previous) {
+            result.add(e.spline);
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    /**
+     * @return number of changes of the connections and their order
+     */
+    int getModCount() {
+        return modCount;
+    }
+
+    /**
+     * @return true if the last trace was a return or a call made with no
+     *         open calls in its thread
+     */
+    boolean isFinishedOnReturn() {
+        return finishedOnReturn;
+    }
+
+    /**
+     * @return innermost open call of the thread of the last trace, placed
+     *         in a new execution point
+     */
+    ExecutionPoint getExecutionPoint() {
+        ExecutionPoint ep = new ExecutionPoint();
+        if (lastStack == null || lastStack.isEmpty())
+            return ep;
+        ComponentData cd = treeRep.getMethods()[lastStack.peekMethodId()];
+        ep.setCenter(cd.getControlPoint());
+        ep.setTrace(new TraceInfo(lastStack.peekMethodId(), false, lastStack
+                .peekCallTime(), lastStack.threadId));
+        ep.setComponentData(cd);
+        return ep;
+    }
+
+    /**
+     * Open calls of a thread.
+     */
+    private static class ThreadStack {
+        private final long threadId;
+        private int[] methodIds = new int[16];
+        private long[] callTimes = new long[16];
+        private int size;
+
+        ThreadStack(long threadId) {
+            this.threadId = threadId;
+        }
+
+        void push(int methodId, long callTime) {
+            if (size == methodIds.length) {
+                methodIds = Arrays.copyOf(methodIds, size * 2);
+                callTimes = Arrays.copyOf(callTimes, size * 2);
+            }
+            methodIds[size] = methodId;
+            callTimes[size] = callTime;
+            size++;
+        }
+
+        /**
+         * Removes the innermost call, returns without a call are ignored.
+         */
+        void pop() {
+            if (size > 0)
+                size--;
+        }
+
+        int peekMethodId() {
+            return methodIds[size - 1];
+        }
+
+        long peekCallTime() {
+            return callTimes[size - 1];
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+    }
+
+    private static class Edge {
+        private final EdgeKey key;
+        private final GraphBspline spline;
+        private long ordinal;
+        private Edge previous;
+        private Edge next;
+
+        Edge(EdgeKey key, GraphBspline spline) {
+            this.key = key;
+            this.spline = spline;
+        }
+    }
+
+    /**
+     * Ordinals of calls that made connections, oldest first.
+     */
+    private static class OrdinalQueue {
+        private long[] ordinals = new long[16];
+        private int head;
+        private int size;
+
+        void add(long ordinal) {
+            if (size == ordinals.length) {
+                long[] grown = new long[size * 2];
+                for (int i = 0; i < size; i++)
+                    grown[i] = get(i);
+                ordinals = grown;
+                head = 0;
+            }
+            ordinals[(head + size) % ordinals.length] = ordinal;
+            size++;
+        }
+
+        void removeBefore(long ordinal) {
+            while (size > 0 && ordinals[head] < ordinal) {
+                head = (head + 1) % ordinals.length;
+                size--;
+            }
+        }
+
+        long get(int i) {
+            return ordinals[(head + i) % ordinals.length];
+        }
+
+        int size() {
+            return size;
+        }
+
+        void clear() {
+            head = 0;
+            size = 0;
+        }
+    }
+
+}
@@ -21,41 +21,71 @@
 
 package travis.view.project.graph.connection;
 
+import java.awt.AlphaComposite;
 import java.awt.Graphics2D;
-import java.awt.Point;
 import java.awt.image.BufferedImage;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Iterator;
-import java.util.LinkedHashSet;
-import java.util.LinkedList;
-import java.util.Set;
-import java.util.concurrent.LinkedBlockingDeque;
-
-import travis.controller.UIHelper;
-import travis.model.script.TraceInfo;
+import java.util.Collections;
+import java.util.List;
+
+import travis.model.script.TraceBuffer;
+import travis.view.Bspline;
 import travis.view.Util;
-import travis.view.project.graph.ComponentData;
-import travis.view.project.graph.ControlPoint;
 import travis.view.project.graph.TreeRepresentation;
 import travis.view.settings.Settings;
 
+/**
+ * Draws connections of the latest traces. Connections are kept in a model
+ * updated only with newly added traces, and the image is redrawn only when
+ * the drawn connections or their settings change. Tessellated splines are
+ * cached for the control points they join, and many of them are drawn in
+ * tiles on all processors. Traces and resets are queued by the event
+ * dispatch thread and taken over by the drawing thread, which alone uses
+ * the buffer the model follows.
+ */
 public class ConnectionPainter {
 
     private static final float MIN_ALPHA = 0.1f;
     private static final float MAX_ALPHA = 0.6f;
+    // Number of curves below which the image is not drawn in tiles
+    private static final int MIN_TILED_CURVES = 64;
 
     private final TreeRepresentation treeRep;
-    private final LinkedBlockingDeque<TraceInfo> traces;
-    private Collection<GraphBspline> oldSplines;
+    private final TraceBuffer traces;
+    // Traces added since the last update, guards the reset fields as well
+    private final TraceBuffer pending;
+    private boolean resetPending;
+    private TraceBuffer pendingOpenCalls;
+    private final ConnectionModel model;
+    private final SplineCache splineCache;
+    private final TileRenderer tileRenderer;
+    private Reset lastReset;
+    private long modelledEnd;
+    private int layoutVersion;
+    private volatile Collection<GraphBspline> drawnSplines;
     private volatile ExecutionPoint execPoint;
 
     private volatile BufferedImage image;
     private volatile boolean needRepaint;
+    private volatile int curveLimit;
+    private int drawnModCount;
+    private int drawnMaxCurves;
+    private boolean drawnUnique;
+    private double drawnBundling;
+    private boolean drawnFinishedOnReturn;
 
     public ConnectionPainter(TreeRepresentation treeRep) {
         this.treeRep = treeRep;
-        traces = new LinkedBlockingDeque<TraceInfo>();
-        oldSplines = new LinkedHashSet<GraphBspline>();
+        traces = new TraceBuffer(Settings.getInstance().getCachedTracesNo());
+        pending = new TraceBuffer(Settings.getInstance().getCachedTracesNo());
+        model = new ConnectionModel(treeRep);
+        splineCache = new SplineCache();
+        tileRenderer = new TileRenderer();
+        curveLimit = Integer.MAX_VALUE;
+        layoutVersion = treeRep.getLayoutVersion();
+        drawnSplines = Collections.emptyList();
+        execPoint = new ExecutionPoint();
         needRepaint = true;
     }
 
@@ -63,9 +93,27 @@ public class ConnectionPainter {
         return execPoint;
     }
 
+    /**
+     * Drops all traces, the model is cleared with the next update so that
+     * no drawing in progress is waited for.
+     */
     public void reset() {
-        traces.clear();
-        oldSplines.clear();
+        reset(null);
+    }
+
+    /**
+     * Drops all traces, the traces added next are followed from the given
+     * open calls. The model is cleared with the next update.
+     *
+     * @param openCalls calls opened before the traces added next, thread by
+     *                  thread starting from the outermost call, or null
+     */
+    public void reset(TraceBuffer openCalls) {
+        synchronized (pending) {
+            pending.clear();
+            resetPending = true;
+            pendingOpenCalls = openCalls;
+        }
         needRepaint = true;
     }
 
@@ -73,198 +121,205 @@ public class ConnectionPainter {
         this.needRepaint = needRepaint;
     }
 
+    /**
+     * @return splines drawn last, the newest last
+     */
     public Collection<GraphBspline> getSplines() {
-        return oldSplines;
+        return drawnSplines;
     }
 
-    public void lineTo(TraceInfo trace) {
-        needRepaint = true;
-        traces.addFirst(trace);
-        while (traces.size() > Settings.getInstance().getCachedTracesNo()) {
-            traces.removeLast();
+    /**
+     * Queues traces, they are passed to the model when the connections are
+     * drawn.
+     */
+    public void lineTo(TraceBuffer batch) {
+        synchronized (pending) {
+            pending.setCapacity(Settings.getInstance().getCachedTracesNo());
+            pending.addAll(batch);
         }
+        needRepaint = true;
     }
 
-    public void createConnections(ControlPoint cpStart,
-                                  TraceInfo previousTrace, Iterator<TraceInfo> it,
-                                  ConnectionData data, boolean isFirst) {
-        for (; it.hasNext(); ) {
-            TraceInfo trace = it.next();
-            ComponentData cd = treeRep.getMethods()[trace.getMethodId()];
-
-            // cd (method) is null only when not selected / visible
-            if (cd == null)
-                continue;
-            data.finishedOnReturn = true;
-            if (isFirst) {
-                cpStart = null;
-                previousTrace = null;
-            }
+    /**
+     * @param curveLimit maximum number of drawn curves below the one set in
+     *                   settings
+     */
+    public void setCurveLimit(int curveLimit) {
+        this.curveLimit = curveLimit;
+    }
 
-            if (trace.isReturnCall()) {
-                if (cpStart == null) {
-                    createConnections(null, null, it, data, false);
-                } else {
-                    return;
-                }
-            } else {
-                ControlPoint cpEnd = cd.getControlPoint();
-                data.ep.setCenter(cpEnd);
-                data.ep.setTrace(trace);
-                data.ep.setComponentData(cd);
-                if (cpStart == null) {
-                    cpStart = cpEnd;
-                    previousTrace = trace;
-                    createConnections(cpStart, trace, it, data, false);
-                } else {
-                    // The commented out part causes graph to not be drawn correctly
-                    // TODO All threads should be drawn separately from a different collection
-//					if (previousTrace.getThreadId() != trace.getThreadId())
-//						continue;
-
-                    data.finishedOnReturn = false;
-                    Point[] path = cpStart.getPathTo(cpEnd);
-                    // TODO Deal with recursive calls (path.length == 1).
-                    GraphBspline spline = new GraphBspline(previousTrace,
-                            trace, path);
-                    data.addSpline(spline);
-                    createConnections(cpEnd, trace, it, data, false);
-                }
+    private int getMaxCurvesNo() {
+        return Math.min(curveLimit, Settings.getInstance().getMaxCurvesNo());
+    }
+
+    /**
+     * Passes traces added since the last update to the model, or all
+     * buffered traces once methods have been laid out again.
+     */
+    private void updateModel() {
+        Reset r = null;
+        synchronized (pending) {
+            if (resetPending) {
+                traces.clear();
+                r = new Reset(traces.getEnd(), pendingOpenCalls);
+                resetPending = false;
+                pendingOpenCalls = null;
             }
+            traces.setCapacity(Settings.getInstance().getCachedTracesNo());
+            traces.addAll(pending);
+            pending.clear();
+        }
+        if (r != null) {
+            lastReset = r;
+            model.clear();
+            addOpenCalls();
+            modelledEnd = r.ordinal;
         }
+        int version = treeRep.getLayoutVersion();
+        if (version != layoutVersion) {
+            layoutVersion = version;
+            model.clear();
+            splineCache.clear();
+            addOpenCalls();
+            modelledEnd = traces.getStart();
+        }
+        modelledEnd = model.update(traces, modelledEnd);
+    }
+
+    /**
+     * Passes the open calls of the last reset to the model while no trace
+     * following them has been dropped.
+     */
+    private void addOpenCalls() {
+        if (lastReset == null)
+            return;
+        if (lastReset.openCalls == null
+                || traces.getStart() != lastReset.ordinal) {
+            lastReset = null;
+            return;
+        }
+        model.addOpenCalls(lastReset.openCalls);
     }
 
-    public BufferedImage getImage(int width, int height) {
+    /**
+     * @return image of the connections, the execution point is not included
+     *         and is drawn separately
+     */
+    public synchronized BufferedImage getImage(int width, int height) {
         if (!needRepaint)
             return image;
 
         needRepaint = false;
-        BufferedImage img = new BufferedImage(width, height,
-                BufferedImage.TYPE_INT_ARGB);
-        Graphics2D g2 = (Graphics2D) img.getGraphics();
-        g2.setRenderingHints(Util.HINTS);
-
-        ConnectionData data = new ConnectionData();
-        populateSplines(data);
-
-        int size = Math.min(data.splines.size(), Settings.getInstance()
-                .getMaxCurvesNo());
-
-        int counter = data.splines.size();
-        Set<GraphBspline> trimmedSplines = new LinkedHashSet<GraphBspline>(size);
-        for (GraphBspline spline : data.splines) {
-            // Skip splines that are outside max curve limit.
-            if (counter > size) {
-                counter--;
-                continue;
-            }
-            if (!data.ignoreOldTraces)
-                trimmedSplines.remove(spline);
-            trimmedSplines.add(spline);
+        updateModel();
+        execPoint = model.getExecutionPoint();
+
+        Settings sets = Settings.getInstance();
+        BufferedImage img = image;
+        if (img != null && img.getWidth() == width
+                && img.getHeight() == height
+                && drawnModCount == model.getModCount()
+                && drawnMaxCurves == getMaxCurvesNo()
+                && drawnUnique == sets.isDrawingUniqueTraces()
+                && drawnBundling == sets.getCurveBundlingStrength()
+                && drawnFinishedOnReturn == model.isFinishedOnReturn())
+            return img;
+
+        drawnModCount = model.getModCount();
+        drawnMaxCurves = getMaxCurvesNo();
+        drawnUnique = sets.isDrawingUniqueTraces();
+        drawnBundling = sets.getCurveBundlingStrength();
+        drawnFinishedOnReturn = model.isFinishedOnReturn();
+
+        Graphics2D g2;
+        if (img == null || img.getWidth() != width
+                || img.getHeight() != height) {
+            img = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            g2 = (Graphics2D) img.getGraphics();
+        } else {
+            g2 = (Graphics2D) img.getGraphics();
+            g2.setComposite(AlphaComposite.Clear);
+            g2.fillRect(0, 0, width, height);
+            g2.setComposite(AlphaComposite.SrcOver);
         }
-
-        size = Math.min(trimmedSplines.size(), Settings.getInstance()
-                .getMaxCurvesNo());
-        int power = 1;
-        int sizePowered = Util.pow(size, power);
-        int i = 1;
-        for (GraphBspline spline : trimmedSplines) {
-            if (i == size) {
-                if (data.finishedOnReturn)
-                    spline.draw(g2, MAX_ALPHA);
-                else
-                    spline.draw(g2, 1f);
-            } else {
-                int iPowered = Util.pow(++i, power);
-                float alpha = MIN_ALPHA + ((float) iPowered / sizePowered)
-                        * (MAX_ALPHA - MIN_ALPHA);
-                spline.draw(g2, alpha);
-            }
-        }
-
-        data.ep.draw(g2);
-        execPoint = data.ep;
-
-        displayExecPointTooltip(data.ep);
-
+        g2.setRenderingHints(Util.HINTS);
+        List<GraphBspline> splines = getSplines(sets);
+        if (TileRenderer.isParallel() && splines.size() >= MIN_TILED_CURVES)
+            drawTiles(img, splines);
+        else
+            drawSplines(g2, splines);
         g2.dispose();
+
         image = img;
         return image;
     }
 
-    private void displayExecPointTooltip(ExecutionPoint ep) {
-        UIHelper.getInstance().getTooltip().displayExecutionPointTooltip(ep);
+    /**
+     * Draws the connections of the buffered traces and the execution point
+     * onto the graphics, used for images not shown in the graph panel.
+     */
+    public synchronized ExecutionPoint paint(Graphics2D g2) {
+        updateModel();
+        drawSplines(g2, getSplines(Settings.getInstance()));
+        ExecutionPoint ep = model.getExecutionPoint();
+        ep.draw(g2);
+        execPoint = ep;
+        return ep;
     }
 
-    private void populateSplines(ConnectionData data) {
-        Iterator<TraceInfo> it;
-        Iterator<TraceInfo> it2;
-        synchronized (traces) {
-            if (traces.isEmpty()) {
-                oldSplines = data.splines;
-            }
-
-            it = traces.descendingIterator();
-            it2 = traces.iterator();
-        }
-
-        createConnections(null, null, it, data, true);
-        if (data.finishedOnReturn)
-            moveExecutionToReturn(it2, data);
+    /**
+     * @return splines of the drawn connections with their geometry set
+     */
+    private List<GraphBspline> getSplines(Settings sets) {
+        List<GraphBspline> splines = model.getConnections(getMaxCurvesNo(),
+                sets.isDrawingUniqueTraces());
+        drawnSplines = splines;
+
+        double bundlingStrength = sets.getCurveBundlingStrength();
+        for (GraphBspline spline : splines)
+            splineCache.apply(spline, bundlingStrength);
+        return splines;
+    }
 
-        this.oldSplines = data.splines;
+    private void drawSplines(Graphics2D g2, List<GraphBspline> splines) {
+        int size = splines.size();
+        int i = 0;
+        for (GraphBspline spline : splines)
+            spline.draw(g2, getAlpha(i++, size));
     }
 
-    private void moveExecutionToReturn(Iterator<TraceInfo> it,
-                                       ConnectionData data) {
-        int returns = 0;
-        for (; it.hasNext(); ) {
-            TraceInfo trace = it.next();
-            ComponentData cd = treeRep.getMethods()[trace.getMethodId()];
-            if (cd == null) {
-                continue;
-            }
-            if (!trace.isReturnCall()) {
-                if (returns != 0) {
-                    returns--;
-                    continue;
-                }
-                data.ep.setCenter(cd.getControlPoint());
-                data.ep.setTrace(trace);
-                data.ep.setComponentData(cd);
-                return;
-            } else {
-                returns++;
-            }
+    private void drawTiles(BufferedImage img, List<GraphBspline> splines) {
+        int size = splines.size();
+        List<Bspline.Geometry> curves = new ArrayList<Bspline.Geometry>(size);
+        float[] alphas = new float[size];
+        int i = 0;
+        for (GraphBspline spline : splines) {
+            curves.add(spline.getGeometry());
+            alphas[i] = getAlpha(i, size);
+            i++;
         }
-        // Could only be achieved if didn't find a point
-        data.ep.setCenter(null);
-        data.ep.setTrace(null);
-        data.ep.setComponentData(null);
+        tileRenderer.draw(img, curves, alphas);
     }
 
-    private class ConnectionData {
-        private final Collection<GraphBspline> splines;
-        private boolean finishedOnReturn;
-        private final ExecutionPoint ep;
-        private final boolean ignoreOldTraces;
-
-        public ConnectionData() {
-            ignoreOldTraces = Settings.getInstance().isDrawingUniqueTraces();
-            if (ignoreOldTraces) {
-                splines = new LinkedHashSet<GraphBspline>();
-            } else {
-                splines = new LinkedList<GraphBspline>();
-            }
-            finishedOnReturn = false;
-            ep = new ExecutionPoint();
-        }
+    /**
+     * @return alpha of the spline at the index, older splines are fainter
+     */
+    private float getAlpha(int index, int size) {
+        if (index == size - 1)
+            return model.isFinishedOnReturn() ? MAX_ALPHA : 1f;
+        int power = 1;
+        int sizePowered = Util.pow(size, power);
+        int iPowered = Util.pow(index + 2, power);
+        return MIN_ALPHA + ((float) iPowered / sizePowered)
+                * (MAX_ALPHA - MIN_ALPHA);
+    }
 
-        public void addSpline(GraphBspline spline) {
-            if (ignoreOldTraces) {
-                splines.remove(spline);
-            }
-            splines.add(spline);
+    private static class Reset {
+        private final long ordinal;
+        private final TraceBuffer openCalls;
+
+        Reset(long ordinal, TraceBuffer openCalls) {
+            this.ordinal = ordinal;
+            this.openCalls = openCalls;
         }
     }
 
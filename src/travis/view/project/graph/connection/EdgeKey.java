@@ -0,0 +1,59 @@
+/*
+ * EdgeKey.java
+ *
+ * Copyright (C) 2011-2012, Artur Jonkisz, <travis.source@gmail.com>
+ *
+ * This file is part of TraVis.
+ * See https://github.com/ajonkisz/TraVis for more info.
+ *
+ * TraVis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TraVis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with TraVis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package travis.view.project.graph.connection;
+
+import java.awt.Point;
+
+/**
+ * Ends of a connection, equal for splines equal by their end points.
+ */
+class EdgeKey {
+
+    private final Point start;
+    private final Point end;
+
+    EdgeKey(Point start, Point end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof EdgeKey))
+            return false;
+        EdgeKey key = (EdgeKey) obj;
+        return start.x == key.start.x && start.y == key.start.y
+                && end.x == key.end.x && end.y == key.end.y;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 7;
+        int mult = 37;
+        hash = hash * mult + start.x;
+        hash = hash * mult + start.y;
+        hash = hash * mult + end.x;
+        hash = hash * mult + end.y;
+        return hash;
+    }
+
+}
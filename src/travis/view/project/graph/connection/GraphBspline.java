@@ -21,19 +21,35 @@
 
 package travis.view.project.graph.connection;
 
-import java.awt.Point;
-
 import travis.model.script.TraceInfo;
 import travis.view.Bspline;
+import travis.view.project.graph.ControlPoint;
 
 public class GraphBspline extends Bspline {
 
-    private final TraceInfo callerTrace;
-    private final TraceInfo calleeTrace;
+    private final ControlPoint callerPoint;
+    private final ControlPoint calleePoint;
+    private volatile TraceInfo callerTrace;
+    private volatile TraceInfo calleeTrace;
+
+    public GraphBspline(ControlPoint callerPoint, ControlPoint calleePoint) {
+        super(callerPoint.getPathTo(calleePoint));
+        this.callerPoint = callerPoint;
+        this.calleePoint = calleePoint;
+    }
+
+    public ControlPoint getCallerPoint() {
+        return callerPoint;
+    }
+
+    public ControlPoint getCalleePoint() {
+        return calleePoint;
+    }
 
-    public GraphBspline(TraceInfo callerTrace, TraceInfo calleeTrace,
-                        Point[] points) {
-        super(points);
+    /**
+     * Sets the latest call along the spline and the call it made.
+     */
+    void setTraces(TraceInfo callerTrace, TraceInfo calleeTrace) {
         this.callerTrace = callerTrace;
         this.calleeTrace = calleeTrace;
     }
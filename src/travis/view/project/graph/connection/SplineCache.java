@@ -0,0 +1,85 @@
+/*
+ * SplineCache.java
+ *
+ * Copyright (C) 2011-2012, Artur Jonkisz, <travis.source@gmail.com>
+ *
+ * This file is part of TraVis.
+ * See https://github.com/ajonkisz/TraVis for more info.
+ *
+ * TraVis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TraVis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with TraVis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package travis.view.project.graph.connection;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import travis.view.Bspline;
+
+/**
+ * Tessellated splines of connections, kept between frames for the control
+ * points they join. Least recently used splines are evicted. All splines
+ * are dropped when the curve bundling strength changes and, by the
+ * painter, when methods are laid out again.
+ */
+class SplineCache {
+
+    private static final int MAX_SPLINES = 4096;
+
+    private final Map<EdgeKey, Bspline.Geometry> geometries;
+    private double bundlingStrength;
+
+    SplineCache() {
+        geometries = new LinkedHashMap<EdgeKey, Bspline.Geometry>(16, 0.75f,
+                true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<EdgeKey, Bspline.Geometry> eldest) {
+                return size() > MAX_SPLINES;
+            }
+        };
+        bundlingStrength = Double.NaN;
+    }
+
+    /**
+     * Gives the spline the geometry of its control points, tessellating it
+     * only if it is not cached.
+     */
+    synchronized void apply(GraphBspline spline, double bundlingStrength) {
+        if (bundlingStrength != this.bundlingStrength) {
+            geometries.clear();
+            this.bundlingStrength = bundlingStrength;
+        }
+        Bspline.Geometry geo = spline.getGeometry();
+        if (geo != null && geo.getBundlingStrength() == bundlingStrength)
+            return;
+
+        EdgeKey key = new EdgeKey(spline.getCallerPoint(),
+                spline.getCalleePoint());
+        geo = geometries.get(key);
+        if (geo == null) {
+            geo = spline.tessellate(bundlingStrength);
+            if (geo == null)
+                return;
+            geometries.put(key, geo);
+        }
+        spline.setGeometry(geo);
+    }
+
+    synchronized void clear() {
+        geometries.clear();
+    }
+
+}
@@ -0,0 +1,193 @@
+/*
+ * TileRenderer.java
+ *
+ * Copyright (C) 2011-2012, Artur Jonkisz, <travis.source@gmail.com>
+ *
+ * This file is part of TraVis.
+ * See https://github.com/ajonkisz/TraVis for more info.
+ *
+ * TraVis is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TraVis is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with TraVis.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package travis.view.project.graph.connection;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import travis.view.Bspline;
+import travis.view.Util;
+
+/**
+ * Draws curves into an image divided into tiles. Every tile is drawn on a
+ * fork/join worker into an image of its own and copied into the result.
+ * Curves are given to all tiles their bounds overlap in the drawing order,
+ * so the result is the same as if drawn at once.
+ */
+class TileRenderer {
+
+    private static final ForkJoinPool POOL = new ForkJoinPool();
+    private static final int TILE_SIZE = 256;
+    // Number of tiles below which a task is not split any further
+    private static final int TILES_PER_TASK = 1;
+
+    private BufferedImage[] tileImages = new BufferedImage[0];
+    private int columns;
+    private int rows;
+
+    /**
+     * @return true if tiles can be drawn at the same time
+     */
+    static boolean isParallel() {
+        return POOL.getParallelism() > 1;
+    }
+
+    /**
+     * Draws the curves over the image, curves without geometry are skipped.
+     *
+     * @param alphas alpha of every curve, in the curves order
+     */
+    void draw(BufferedImage img, List<Bspline.Geometry> curves, float[] alphas) {
+        int width = img.getWidth();
+        int height = img.getHeight();
+        int cols = (width + TILE_SIZE - 1) / TILE_SIZE;
+        int rs = (height + TILE_SIZE - 1) / TILE_SIZE;
+        if (cols != columns || rs != rows) {
+            columns = cols;
+            rows = rs;
+            tileImages = new BufferedImage[cols * rs];
+        }
+
+        int[][] tileCurves = assignCurves(curves, width, height);
+        POOL.invoke(new TileTask(img, curves, alphas, tileCurves, 0,
+                tileCurves.length));
+    }
+
+    /**
+     * @return indexes of curves drawn over every tile, in the curves order
+     */
+    private int[][] assignCurves(List<Bspline.Geometry> curves, int width,
+                                 int height) {
+        int tilesNo = columns * rows;
+        int[] counts = new int[tilesNo];
+        Rectangle[] bounds = new Rectangle[curves.size()];
+        for (int i = 0; i < bounds.length; i++) {
+            Bspline.Geometry geo = curves.get(i);
+            if (geo == null)
+                continue;
+            Rectangle r = geo.getBounds().intersection(
+                    new Rectangle(0, 0, width, height));
+            if (r.isEmpty())
+                continue;
+            bounds[i] = r;
+            for (int row = r.y / TILE_SIZE; row <= (r.y + r.height - 1)
+                    / TILE_SIZE; row++)
+                for (int col = r.x / TILE_SIZE; col <= (r.x + r.width - 1)
+                        / TILE_SIZE; col++)
+                    counts[row * columns + col]++;
+        }
+
+        int[][] tileCurves = new int[tilesNo][];
+        for (int t = 0; t < tilesNo; t++)
+            tileCurves[t] = new int[counts[t]];
+        Arrays.fill(counts, 0);
+        for (int i = 0; i < bounds.length; i++) {
+            Rectangle r = bounds[i];
+            if (r == null)
+                continue;
+            for (int row = r.y / TILE_SIZE; row <= (r.y + r.height - 1)
+                    / TILE_SIZE; row++)
+                for (int col = r.x / TILE_SIZE; col <= (r.x + r.width - 1)
+                        / TILE_SIZE; col++) {
+                    int t = row * columns + col;
+                    tileCurves[t][counts[t]++] = i;
+                }
+        }
+        return tileCurves;
+    }
+
+    private class TileTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final BufferedImage img;
+        private final List<Bspline.Geometry> curves;
+        private final float[] alphas;
+        private final int[][] tileCurves;
+        private final int from;
+        private final int to;
+
+        TileTask(BufferedImage img, List<Bspline.Geometry> curves,
+                 float[] alphas, int[][] tileCurves, int from, int to) {
+            this.img = img;
+            this.curves = curves;
+            this.alphas = alphas;
+            this.tileCurves = tileCurves;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > TILES_PER_TASK) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new TileTask(img, curves, alphas, tileCurves, from,
+                        mid), new TileTask(img, curves, alphas, tileCurves,
+                        mid, to));
+                return;
+            }
+            for (int t = from; t < to; t++)
+                drawTile(t);
+        }
+
+        private void drawTile(int t) {
+            int[] indexes = tileCurves[t];
+            if (indexes.length == 0)
+                return;
+            int x = (t % columns) * TILE_SIZE;
+            int y = (t / columns) * TILE_SIZE;
+            int width = Math.min(TILE_SIZE, img.getWidth() - x);
+            int height = Math.min(TILE_SIZE, img.getHeight() - y);
+
+            BufferedImage tile = tileImages[t];
+            Graphics2D g2;
+            if (tile == null || tile.getWidth() != width
+                    || tile.getHeight() != height) {
+                tile = new BufferedImage(width, height,
+                        BufferedImage.TYPE_INT_ARGB);
+                tileImages[t] = tile;
+                g2 = (Graphics2D) tile.getGraphics();
+            } else {
+                g2 = (Graphics2D) tile.getGraphics();
+                g2.setComposite(AlphaComposite.Clear);
+                g2.fillRect(0, 0, width, height);
+                g2.setComposite(AlphaComposite.SrcOver);
+            }
+            g2.setRenderingHints(Util.HINTS);
+            g2.translate(-x, -y);
+            for (int i : indexes)
+                curves.get(i).draw(g2, alphas[i]);
+            g2.dispose();
+
+            // Tiles do not overlap so they are copied concurrently
+            img.getRaster().setRect(x, y, tile.getRaster());
+        }
+
+    }
+
+}
@@ -24,11 +24,13 @@ package travis.view.settings;
 import java.util.Observable;
 
 import travis.controller.UIHelper;
+import travis.model.attach.Playback;
 import travis.model.project.structure.StructClass;
 import travis.model.project.structure.StructComponent;
 import travis.model.project.structure.StructMethod;
 import travis.model.project.structure.StructPackage;
 import travis.model.project.structure.StructUtil.Visibility;
+import travis.model.script.TraceFormat;
 import travis.util.Messages;
 import travis.view.Util;
 import travis.view.color.ModifiableColor;
@@ -39,7 +41,8 @@ public class Settings extends Observable {
     private static final Settings INSTANCE = new Settings();
 
     public enum Type {
-        GRAPH, GRAPH_CONNECTION, PLAYBACK_SPEED, PLAYBACK_MODE
+        GRAPH, GRAPH_CONNECTION, PLAYBACK_SPEED, PLAYBACK_MODE, CHECKPOINTS,
+        PRELOAD
     }
 
     public static final int STRUCT_PACKAGE = 1;
@@ -71,7 +74,10 @@ public class Settings extends Observable {
 
     private int cachedTracesNo;
     private int maxCurvesNo;
-    private int curvesPerSec;
+    private double playbackSpeed;
+    private int checkpointInterval;
+    private int preloadBudget;
+    private int renderBudget;
 
     private boolean minDepth;
     private boolean drawingInnerLayout;
@@ -105,7 +111,10 @@ public class Settings extends Observable {
 
         cachedTracesNo = 50000;
         maxCurvesNo = 100;
-        curvesPerSec = 1;
+        playbackSpeed = 1d;
+        checkpointInterval = TraceFormat.CHECKPOINT_INTERVAL;
+        preloadBudget = 256;
+        renderBudget = 40;
 
         minDepth = false;
         drawingInnerLayout = false;
@@ -258,14 +267,16 @@ public class Settings extends Observable {
         setChanged(Type.GRAPH_CONNECTION);
     }
 
-    public int getCurvesPerSec() {
-        return curvesPerSec;
+    /**
+     * @return factor of recorded time to playback time
+     */
+    public double getPlaybackSpeed() {
+        return playbackSpeed;
     }
 
-    public void setCurvesPerSec(int curvesPerSec) {
-        if (curvesPerSec < 1)
-            curvesPerSec = 1;
-        this.curvesPerSec = curvesPerSec;
+    public void setPlaybackSpeed(double playbackSpeed) {
+        this.playbackSpeed = Math.max(Playback.MIN_SPEED, Math.min(
+                Playback.MAX_SPEED, playbackSpeed));
         setChanged(Type.PLAYBACK_SPEED);
     }
 
@@ -278,6 +289,41 @@ public class Settings extends Observable {
         setChanged(Type.GRAPH_CONNECTION);
     }
 
+    public int getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    public void setCheckpointInterval(int checkpointInterval) {
+        this.checkpointInterval = checkpointInterval;
+        setChanged(Type.CHECKPOINTS);
+    }
+
+    /**
+     * @return maximum size of traces of the playback range kept in memory in
+     *         megabytes
+     */
+    public int getPreloadBudget() {
+        return preloadBudget;
+    }
+
+    public void setPreloadBudget(int preloadBudget) {
+        this.preloadBudget = preloadBudget;
+        setChanged(Type.PRELOAD);
+    }
+
+    /**
+     * @return time in milliseconds drawing connections of a frame may take
+     *         before fewer of them are drawn, 0 if it is not limited
+     */
+    public int getRenderBudget() {
+        return renderBudget;
+    }
+
+    public void setRenderBudget(int renderBudget) {
+        this.renderBudget = Math.max(0, renderBudget);
+        setChanged(Type.GRAPH_CONNECTION);
+    }
+
     public double getCurveBundlingStrength() {
         return curveBundlingStrength;
     }
@@ -26,16 +26,20 @@ import java.awt.event.ActionListener;
 import java.awt.event.ItemEvent;
 import java.awt.event.ItemListener;
 import java.text.DecimalFormatSymbols;
+import java.util.Hashtable;
 import javax.swing.ButtonGroup;
 import javax.swing.JCheckBox;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JRadioButton;
 import javax.swing.JSlider;
+import javax.swing.Timer;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 
 import net.miginfocom.swing.MigLayout;
+import travis.model.script.ScriptHandler;
+import travis.model.script.TraceBus;
 import travis.util.Messages;
 import travis.view.Util;
 
@@ -54,12 +58,21 @@ public class TracesPanel extends SettingsTab implements ChangeListener,
     private final JRadioButton uniqueTraces;
     private final JRadioButton latestTraces;
 
-    private final JSlider curvesPerSecSlider;
+    private final JSlider renderBudgetSlider;
+
+    private final JSlider speedSlider;
+
+    private final JSlider checkpointSlider;
+
+    private final JSlider preloadSlider;
+
+    private final JLabel writerLabel;
+    private final Timer writerTimer;
 
     public TracesPanel() {
         super(new MigLayout("wrap 1, insets 0, fillx"));
 
-        cachedTracesSlider = Util.createSlider(0, 100, 0, 10, 5);
+        cachedTracesSlider = Util.createSlider(0, 5000, 0, 1000, 250);
         cachedTracesSlider.addChangeListener(this);
 
         curvesNoSlider = Util.createSlider(0, 200, 0, 50, 25);
@@ -78,8 +91,23 @@ public class TracesPanel extends SettingsTab implements ChangeListener,
         latestTraces.addActionListener(this);
         group.add(latestTraces);
 
-        curvesPerSecSlider = Util.createSlider(0, 25, 0, 5, 1);
-        curvesPerSecSlider.addChangeListener(this);
+        renderBudgetSlider = Util.createSlider(0, 200, 0, 50, 10);
+        renderBudgetSlider.addChangeListener(this);
+
+        // Logarithmic, thousandths of the power of ten
+        speedSlider = Util.createSlider(-3000, 3000, 0, 1000, 250);
+        Hashtable<Integer, JLabel> labels = new Hashtable<Integer, JLabel>();
+        String[] speeds = {"0.001", "0.01", "0.1", "1", "10", "100", "1000"};
+        for (int i = 0; i < speeds.length; i++)
+            labels.put((i - 3) * 1000, new JLabel(speeds[i]));
+        speedSlider.setLabelTable(labels);
+        speedSlider.addChangeListener(this);
+
+        checkpointSlider = Util.createSlider(0, 500, 0, 100, 25);
+        checkpointSlider.addChangeListener(this);
+
+        preloadSlider = Util.createSlider(0, 1024, 0, 256, 64);
+        preloadSlider.addChangeListener(this);
 
         add(Util.createBorderedPanel(Messages.get("cached.traces.thousands"),
                 cachedTracesSlider), "grow");
@@ -92,8 +120,24 @@ public class TracesPanel extends SettingsTab implements ChangeListener,
         add(Util.createBorderedPanel(Messages.get("max.drawn.traces"),
                 "wrap 1", curvesNoSlider, panel), "grow");
 
-        add(Util.createBorderedPanel(Messages.get("traces.persec"),
-                curvesPerSecSlider), "grow");
+        add(Util.createBorderedPanel(Messages.get("render.budget.ms"),
+                renderBudgetSlider), "grow");
+
+        add(Util.createBorderedPanel(Messages.get("playback.speed"),
+                speedSlider), "grow");
+
+        add(Util.createBorderedPanel(Messages
+                .get("checkpoint.interval.thousands"), checkpointSlider),
+                "grow");
+
+        add(Util.createBorderedPanel(Messages.get("preload.budget.mb"),
+                preloadSlider), "grow");
+
+        writerLabel = new JLabel();
+        add(Util.createBorderedPanel(Messages.get("trace.writer"),
+                writerLabel), "grow");
+        writerTimer = new Timer(500, this);
+        writerTimer.start();
 
         updateValues();
     }
@@ -102,7 +146,11 @@ public class TracesPanel extends SettingsTab implements ChangeListener,
     public void updateValues() {
         cachedTracesSlider.setValue(sets.getCachedTracesNo() / 1000);
         curvesNoSlider.setValue(sets.getMaxCurvesNo());
-        curvesPerSecSlider.setValue(sets.getCurvesPerSec());
+        renderBudgetSlider.setValue(sets.getRenderBudget());
+        speedSlider.setValue((int) Math.round(Math.log10(sets
+                .getPlaybackSpeed()) * 1000));
+        checkpointSlider.setValue(sets.getCheckpointInterval() / 1000);
+        preloadSlider.setValue(sets.getPreloadBudget());
 
         uniqueTraces.setSelected(sets.isDrawingUniqueTraces());
         latestTraces.setSelected(!sets.isDrawingUniqueTraces());
@@ -139,23 +187,50 @@ public class TracesPanel extends SettingsTab implements ChangeListener,
                 return;
 
             sets.setMaxCurvesNo(curvesNoSlider.getValue());
-        } else if (e.getSource() == curvesPerSecSlider) {
-            if (sets.getCurvesPerSec() == curvesPerSecSlider.getValue())
+        } else if (e.getSource() == renderBudgetSlider) {
+            if (sets.getRenderBudget() == renderBudgetSlider.getValue())
+                return;
+
+            sets.setRenderBudget(renderBudgetSlider.getValue());
+        } else if (e.getSource() == speedSlider) {
+            double value = Math.pow(10, speedSlider.getValue() / 1000d);
+            if (sets.getPlaybackSpeed() == value)
                 return;
 
-            sets.setCurvesPerSec(curvesPerSecSlider.getValue());
+            sets.setPlaybackSpeed(value);
         } else if (e.getSource() == cachedTracesSlider) {
             int value = cachedTracesSlider.getValue() * 1000;
             if (sets.getCachedTracesNo() == value)
                 return;
 
             sets.setCachedTracesNo(value);
+        } else if (e.getSource() == checkpointSlider) {
+            int value = checkpointSlider.getValue() * 1000;
+            if (sets.getCheckpointInterval() / 1000 == checkpointSlider
+                    .getValue())
+                return;
+
+            sets.setCheckpointInterval(value);
+        } else if (e.getSource() == preloadSlider) {
+            if (sets.getPreloadBudget() == preloadSlider.getValue())
+                return;
+
+            sets.setPreloadBudget(preloadSlider.getValue());
         }
     }
 
+    private void updateWriterLabel() {
+        ScriptHandler handler = ScriptHandler.getInstance();
+        writerLabel.setText(Messages.format("trace.writer.state",
+                handler.getQueuedTracesNo(), handler.getDroppedTracesNo(),
+                TraceBus.getInstance().getDroppedTracesNo()));
+    }
+
     @Override
     public void actionPerformed(ActionEvent e) {
-        if (e.getSource() == uniqueTraces || e.getSource() == latestTraces) {
+        if (e.getSource() == writerTimer) {
+            updateWriterLabel();
+        } else if (e.getSource() == uniqueTraces || e.getSource() == latestTraces) {
             if (sets.isDrawingUniqueTraces() != uniqueTraces.isSelected())
                 sets.setDrawingUniqueTraces(uniqueTraces.isSelected());
         }